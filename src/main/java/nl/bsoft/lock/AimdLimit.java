@@ -0,0 +1,59 @@
+package nl.bsoft.lock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Additive increase, multiplicative decrease. The limit grows by one while calls succeed and the limit is
+ * actually used, and is cut by {@code backoffRatio} on a drop or a call slower than {@code timeout}.
+ */
+public class AimdLimit implements LimitAlgorithm {
+    private final Logger log = LoggerFactory.getLogger(AimdLimit.class);
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double backoffRatio;
+    private final long timeoutNanos;
+
+    private volatile int limit;
+
+    public AimdLimit(int initialLimit, int minLimit, int maxLimit, double backoffRatio, long timeout, TimeUnit unit) {
+        if (minLimit < 1 || minLimit > initialLimit || initialLimit > maxLimit) {
+            throw new IllegalArgumentException("expected 1 <= minLimit <= initialLimit <= maxLimit");
+        }
+        if (backoffRatio <= 0.0 || backoffRatio >= 1.0) {
+            throw new IllegalArgumentException("backoffRatio must be between 0 and 1: " + backoffRatio);
+        }
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.backoffRatio = backoffRatio;
+        this.timeoutNanos = unit.toNanos(timeout);
+    }
+
+    public AimdLimit(int initialLimit, int maxLimit) {
+        this(initialLimit, 1, maxLimit, 0.9, 5, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public int getLimit() {
+        return limit;
+    }
+
+    @Override
+    public synchronized void onSample(long rttNanos, int inFlight, boolean dropped) {
+        int current = limit;
+        int next = current;
+        if (dropped || rttNanos > timeoutNanos) {
+            next = Math.max(minLimit, (int) (current * backoffRatio));
+        } else if (inFlight * 2 >= current) {
+            next = Math.min(maxLimit, current + 1);
+        }
+        if (next != current) {
+            log.debug("Limit changed from {} to {}", current, next);
+            limit = next;
+        }
+    }
+}
@@ -3,13 +3,105 @@ package nl.bsoft.lock;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Locale;
+
 /**
- * Hello world!
+ * Load generator for the locking strategies, run with --help for the options.
  */
 public class App {
-    private final Logger log = LoggerFactory.getLogger(App.class);
+    private static final Logger log = LoggerFactory.getLogger(App.class);
+
+    static final String USAGE = String.join(System.lineSeparator(),
+            "usage: App [options]",
+            "  --threads=N          worker threads (default 4)",
+            "  --duration=S         measured seconds (default 10)",
+            "  --warmup=S           warm-up seconds, not measured (default 2)",
+            "  --strategy=NAME      unsynchronized, synchronized, reentrant, read_write, stamped, atomic, adder",
+            "                       (default synchronized)",
+            "  --executor=NAME      fixed, cached, work_stealing (default fixed)",
+            "  --read-ratio=R       fraction of operations that only read, 0.0 - 1.0 (default 0.0)",
+            "  --rate=N             open loop at N operations per second over all threads,",
+            "                       0 runs closed loop (default 0)",
+            "  --help               show this text");
 
     public static void main(String[] args) {
-        System.out.println("Hello World!");
+        LoadGenerator.Config config;
+        try {
+            config = parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(1);
+            return;
+        }
+        if (config == null) {
+            System.out.println(USAGE);
+            return;
+        }
+
+        try {
+            LoadGenerator.Result result = new LoadGenerator(config).run();
+            System.out.print(result);
+        } catch (InterruptedException e) {
+            log.error("load run interrupted");
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return the configuration, or null when help was asked for
+     * @throws IllegalArgumentException on an unknown option or a bad value
+     */
+    static LoadGenerator.Config parse(String[] args) {
+        LoadGenerator.Config config = new LoadGenerator.Config();
+        for (String arg : args) {
+            if ("--help".equals(arg) || "-h".equals(arg)) {
+                return null;
+            }
+            int separator = arg.indexOf('=');
+            if (!arg.startsWith("--") || separator < 0) {
+                throw new IllegalArgumentException("expected --option=value: " + arg);
+            }
+            String option = arg.substring(2, separator);
+            String value = arg.substring(separator + 1);
+            try {
+                switch (option) {
+                    case "threads":
+                        config.threads(Integer.parseInt(value));
+                        break;
+                    case "duration":
+                        config.duration(Long.parseLong(value));
+                        break;
+                    case "warmup":
+                        config.warmup(Long.parseLong(value));
+                        break;
+                    case "strategy":
+                        config.strategy(parseEnum(LoadGenerator.Strategy.class, arg, value));
+                        break;
+                    case "executor":
+                        config.executorType(parseEnum(LoadGenerator.ExecutorType.class, arg, value));
+                        break;
+                    case "read-ratio":
+                        config.readRatio(Double.parseDouble(value));
+                        break;
+                    case "rate":
+                        config.rate(Long.parseLong(value));
+                        break;
+                    default:
+                        throw new IllegalArgumentException("unknown option: " + arg);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("bad value: " + arg);
+            }
+        }
+        return config;
+    }
+
+    private static <E extends Enum<E>> E parseEnum(Class<E> type, String arg, String value) {
+        try {
+            return Enum.valueOf(type, value.toUpperCase(Locale.ROOT).replace('-', '_'));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("bad value: " + arg);
+        }
     }
 }
@@ -0,0 +1,14 @@
+package nl.bsoft.lock;
+
+/**
+ * Computes the value of a key for {@link ConcurrentCache}, the keyed counterpart of a {@link java.util.concurrent.Callable}.
+ */
+@FunctionalInterface
+public interface CacheLoader<K, V> {
+
+    /**
+     * @return the value for {@code key}, never null
+     * @throws Exception when the value could not be computed, nothing is cached then
+     */
+    V load(K key) throws Exception;
+}
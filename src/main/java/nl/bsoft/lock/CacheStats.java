@@ -0,0 +1,74 @@
+package nl.bsoft.lock;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Snapshot of the statistics of a {@link ConcurrentCache}.
+ */
+public class CacheStats {
+    private final long hitCount;
+    private final long missCount;
+    private final long loadSuccessCount;
+    private final long loadFailureCount;
+    private final long totalLoadTime;
+    private final long evictionCount;
+
+    CacheStats(long hitCount, long missCount, long loadSuccessCount, long loadFailureCount, long totalLoadTime,
+               long evictionCount) {
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.loadSuccessCount = loadSuccessCount;
+        this.loadFailureCount = loadFailureCount;
+        this.totalLoadTime = totalLoadTime;
+        this.evictionCount = evictionCount;
+    }
+
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    public long getMissCount() {
+        return missCount;
+    }
+
+    public double getHitRate() {
+        long requests = hitCount + missCount;
+        return requests == 0 ? 1.0 : (double) hitCount / requests;
+    }
+
+    public long getLoadSuccessCount() {
+        return loadSuccessCount;
+    }
+
+    public long getLoadFailureCount() {
+        return loadFailureCount;
+    }
+
+    /**
+     * Time spent loading values, including failed loads and refreshes.
+     */
+    public long getTotalLoadTime(TimeUnit unit) {
+        return unit.convert(totalLoadTime, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Average time in nanoseconds spent on one load.
+     */
+    public double getAverageLoadPenalty() {
+        long loads = loadSuccessCount + loadFailureCount;
+        return loads == 0 ? 0.0 : (double) totalLoadTime / loads;
+    }
+
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT,
+                "CacheStats{hits=%d, misses=%d, hitRate=%.3f, loadSuccess=%d, loadFailure=%d, averageLoadPenalty=%.0fns, evictions=%d}",
+                hitCount, missCount, getHitRate(), loadSuccessCount, loadFailureCount, getAverageLoadPenalty(),
+                evictionCount);
+    }
+}
@@ -0,0 +1,204 @@
+package nl.bsoft.lock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bulkhead with an adaptive limit on the number of calls in flight toward a dependency.
+ * <p>
+ * The limit comes from a {@link LimitAlgorithm} that is fed the latency and outcome of each call. Calls above
+ * the limit wait in a bounded queue for at most {@code maxWait}, or are rejected with a
+ * {@link RejectedExecutionException} so callers fail fast instead of piling up behind a slow dependency.
+ * The fast path is a CAS on the in-flight counter, the queue lock is only touched when the limit is reached.
+ */
+public class ConcurrencyLimiter {
+    private final Logger log = LoggerFactory.getLogger(ConcurrencyLimiter.class);
+
+    private final LimitAlgorithm algorithm;
+    private final int maxQueued;
+    private final long maxWaitNanos;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger queued = new AtomicInteger();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder succeeded = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+
+    /**
+     * Limiter that rejects every call above the limit.
+     */
+    public ConcurrencyLimiter(LimitAlgorithm algorithm) {
+        this(algorithm, 0, 0, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Limiter that lets up to {@code maxQueued} calls wait at most {@code maxWait} for a free slot.
+     */
+    public ConcurrencyLimiter(LimitAlgorithm algorithm, int maxQueued, long maxWait, TimeUnit unit) {
+        if (maxQueued < 0 || maxWait < 0) {
+            throw new IllegalArgumentException("maxQueued and maxWait must not be negative");
+        }
+        this.algorithm = algorithm;
+        this.maxQueued = maxQueued;
+        this.maxWaitNanos = unit.toNanos(maxWait);
+    }
+
+    /**
+     * Run {@code task} in the calling thread when the limit allows it.
+     *
+     * @throws RejectedExecutionException when no slot became available
+     * @throws Exception                  whatever {@code task} throws
+     */
+    public <T> T call(Callable<T> task) throws Exception {
+        int started = acquire();
+        long start = System.nanoTime();
+        boolean dropped = true;
+        try {
+            T result = task.call();
+            dropped = false;
+            return result;
+        } finally {
+            long rtt = System.nanoTime() - start;
+            if (dropped) {
+                failed.increment();
+            } else {
+                succeeded.increment();
+            }
+            algorithm.onSample(rtt, started, dropped);
+            release();
+        }
+    }
+
+    /**
+     * Wrap {@code task} so it runs under this limiter, for instance when submitted to an executor.
+     */
+    public <T> Callable<T> wrap(Callable<T> task) {
+        return () -> call(task);
+    }
+
+    public int getLimit() {
+        return algorithm.getLimit();
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public int getQueued() {
+        return queued.get();
+    }
+
+    public long getAccepted() {
+        return accepted.sum();
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    public long getSucceeded() {
+        return succeeded.sum();
+    }
+
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    /**
+     * Total time accepted calls spent waiting in the queue.
+     */
+    public long getWaitTime(TimeUnit unit) {
+        return unit.convert(waitNanos.sum(), TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public String toString() {
+        return "ConcurrencyLimiter{limit=" + getLimit() + ", inFlight=" + getInFlight() + ", queued=" + getQueued()
+                + ", accepted=" + getAccepted() + ", rejected=" + getRejected()
+                + ", succeeded=" + getSucceeded() + ", failed=" + getFailed() + "}";
+    }
+
+    /**
+     * @return number of calls in flight before this one
+     */
+    private int acquire() throws InterruptedException {
+        int current = tryAcquire();
+        if (current >= 0) {
+            accepted.increment();
+            return current;
+        }
+        if (maxWaitNanos > 0 && queued.incrementAndGet() <= maxQueued) {
+            long start = System.nanoTime();
+            try {
+                current = awaitSlot(start + maxWaitNanos);
+            } finally {
+                queued.decrementAndGet();
+            }
+            if (current >= 0) {
+                waitNanos.add(System.nanoTime() - start);
+                accepted.increment();
+                return current;
+            }
+        } else if (maxWaitNanos > 0) {
+            queued.decrementAndGet();
+        }
+        rejected.increment();
+        log.debug("Call rejected, limit: {}, in flight: {}", getLimit(), getInFlight());
+        throw new RejectedExecutionException("concurrency limit of " + getLimit() + " reached");
+    }
+
+    private int awaitSlot(long deadline) throws InterruptedException {
+        lock.lock();
+        try {
+            int current;
+            while ((current = tryAcquire()) < 0) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return -1;
+                }
+                released.awaitNanos(remaining);
+            }
+            return current;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int tryAcquire() {
+        for (; ; ) {
+            int current = inFlight.get();
+            if (current >= algorithm.getLimit()) {
+                return -1;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return current;
+            }
+        }
+    }
+
+    private void release() {
+        inFlight.decrementAndGet();
+        if (queued.get() > 0) {
+            lock.lock();
+            try {
+                released.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,536 @@
+package nl.bsoft.lock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Iterator;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.ToIntBiFunction;
+
+/**
+ * Loading cache that memoizes the results of an expensive {@link CacheLoader}.
+ * <p>
+ * Every key is loaded at most once at a time: concurrent callers of a missing key wait for the one load in
+ * progress. The size is bounded by entry count or total weight and kept with the W-TinyLFU policy: new
+ * entries enter a small LRU window, and when they leave it they only get into the main space if a
+ * {@link FrequencySketch} says they are used more often than the entry they would push out. The main space
+ * is a segmented LRU with a probation and a protected part.
+ * <p>
+ * Reads do not take the policy lock. They record the entry in a small lossy buffer that is replayed under the
+ * lock once it is full; writes apply the policy directly since they follow a load anyway.
+ */
+public class ConcurrentCache<K, V> {
+    private final Logger log = LoggerFactory.getLogger(ConcurrentCache.class);
+
+    private static final int READ_BUFFER_SIZE = 64;
+    private static final int READ_BUFFER_MASK = READ_BUFFER_SIZE - 1;
+
+    private enum Queue {
+        WINDOW, PROBATION, PROTECTED
+    }
+
+    private static final class Node<K, V> {
+        final K key;
+        volatile V value;
+        volatile long writeTime;
+        final AtomicBoolean refreshing = new AtomicBoolean();
+
+        // guarded by evictionLock, queue is null until the node is linked
+        int weight;
+        Queue queue;
+        Node<K, V> prev;
+        Node<K, V> next;
+        boolean removed;
+
+        Node(K key, V value, int weight, long writeTime) {
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+            this.writeTime = writeTime;
+        }
+    }
+
+    /**
+     * Access ordered list of nodes, least recently used first.
+     */
+    private static final class Deque<K, V> {
+        Node<K, V> head;
+        Node<K, V> tail;
+        long weight;
+
+        void addLast(Node<K, V> node) {
+            node.prev = tail;
+            node.next = null;
+            if (tail == null) {
+                head = node;
+            } else {
+                tail.next = node;
+            }
+            tail = node;
+            weight += node.weight;
+        }
+
+        void remove(Node<K, V> node) {
+            if (node.prev == null) {
+                head = node.next;
+            } else {
+                node.prev.next = node.next;
+            }
+            if (node.next == null) {
+                tail = node.prev;
+            } else {
+                node.next.prev = node.prev;
+            }
+            node.prev = null;
+            node.next = null;
+            weight -= node.weight;
+        }
+
+        void moveToLast(Node<K, V> node) {
+            if (tail != node) {
+                remove(node);
+                addLast(node);
+            }
+        }
+    }
+
+    public static class Builder<K, V> {
+        private long maximum = -1;
+        private ToIntBiFunction<? super K, ? super V> weigher;
+        private long expireAfterWriteNanos = 0;
+        private long refreshAfterWriteNanos = 0;
+        private Executor executor = ForkJoinPool.commonPool();
+
+        /**
+         * Bound the cache to {@code maximumSize} entries.
+         */
+        public Builder<K, V> maximumSize(long maximumSize) {
+            if (maximumSize < 1) {
+                throw new IllegalArgumentException("maximumSize must be positive: " + maximumSize);
+            }
+            this.maximum = maximumSize;
+            this.weigher = null;
+            return this;
+        }
+
+        /**
+         * Bound the cache to a total weight of {@code maximumWeight}, each entry weighs what {@code weigher} says.
+         */
+        public Builder<K, V> maximumWeight(long maximumWeight, ToIntBiFunction<? super K, ? super V> weigher) {
+            if (maximumWeight < 1) {
+                throw new IllegalArgumentException("maximumWeight must be positive: " + maximumWeight);
+            }
+            this.maximum = maximumWeight;
+            this.weigher = weigher;
+            return this;
+        }
+
+        /**
+         * Entries are loaded again when they are older than {@code duration}.
+         */
+        public Builder<K, V> expireAfterWrite(long duration, TimeUnit unit) {
+            this.expireAfterWriteNanos = unit.toNanos(duration);
+            return this;
+        }
+
+        /**
+         * Entries older than {@code duration} are reloaded in the background on their next read, the old value
+         * is returned until the new one is there.
+         */
+        public Builder<K, V> refreshAfterWrite(long duration, TimeUnit unit) {
+            this.refreshAfterWriteNanos = unit.toNanos(duration);
+            return this;
+        }
+
+        /**
+         * Executor for background refreshes, the common fork join pool by default.
+         */
+        public Builder<K, V> executor(Executor executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        public ConcurrentCache<K, V> build(CacheLoader<? super K, V> loader) {
+            if (maximum < 0) {
+                throw new IllegalStateException("maximumSize or maximumWeight is required");
+            }
+            return new ConcurrentCache<>(this, loader);
+        }
+    }
+
+    public static <K, V> Builder<K, V> newBuilder() {
+        return new Builder<>();
+    }
+
+    private final CacheLoader<? super K, V> loader;
+    private final ToIntBiFunction<? super K, ? super V> weigher;
+    private final long expireAfterWriteNanos;
+    private final long refreshAfterWriteNanos;
+    private final Executor executor;
+
+    private final ConcurrentHashMap<K, Node<K, V>> data = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<K, CompletableFuture<V>> loading = new ConcurrentHashMap<>();
+
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private final FrequencySketch sketch;
+    private final long maximum;
+    private final long windowMaximum;
+    private final long protectedMaximum;
+    private final Deque<K, V> window = new Deque<>();
+    private final Deque<K, V> probation = new Deque<>();
+    private final Deque<K, V> protectedQueue = new Deque<>();
+
+    private final AtomicReferenceArray<Node<K, V>> readBuffer = new AtomicReferenceArray<>(READ_BUFFER_SIZE);
+    private final AtomicLong readBufferWrites = new AtomicLong();
+
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder loadSuccessCount = new LongAdder();
+    private final LongAdder loadFailureCount = new LongAdder();
+    private final LongAdder totalLoadTime = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
+
+    private ConcurrentCache(Builder<K, V> builder, CacheLoader<? super K, V> loader) {
+        this.loader = loader;
+        this.weigher = builder.weigher;
+        this.expireAfterWriteNanos = builder.expireAfterWriteNanos;
+        this.refreshAfterWriteNanos = builder.refreshAfterWriteNanos;
+        this.executor = builder.executor;
+        this.maximum = builder.maximum;
+        this.windowMaximum = Math.max(1L, maximum / 100);
+        this.protectedMaximum = (long) ((maximum - windowMaximum) * 0.8);
+        this.sketch = new FrequencySketch(weigher == null ? maximum : Math.min(maximum, 1 << 20));
+    }
+
+    /**
+     * Value of {@code key}, loaded when it is not cached yet or has expired.
+     *
+     * @throws ExecutionException   when the loader failed, the cause is the exception of the loader
+     * @throws InterruptedException when interrupted while waiting for another thread loading the same key
+     */
+    public V get(K key) throws ExecutionException, InterruptedException {
+        Node<K, V> node = data.get(key);
+        long now = System.nanoTime();
+        if (node != null && !isExpired(node, now)) {
+            hitCount.increment();
+            afterRead(node, now);
+            return node.value;
+        }
+        missCount.increment();
+
+        CompletableFuture<V> future = new CompletableFuture<>();
+        CompletableFuture<V> inProgress = loading.putIfAbsent(key, future);
+        if (inProgress != null) {
+            return inProgress.get();
+        }
+        try {
+            // a load that just finished has already stored its node before it left the loading map
+            node = data.get(key);
+            if (node != null && !isExpired(node, System.nanoTime())) {
+                future.complete(node.value);
+                return node.value;
+            }
+            V value = load(key);
+            put(key, value);
+            future.complete(value);
+            return value;
+        } catch (ExecutionException e) {
+            future.completeExceptionally(e.getCause());
+            throw e;
+        } catch (Throwable t) {
+            // any other failure, such as a negative weight, must reach the waiters too or they hang
+            future.completeExceptionally(t);
+            throw t;
+        } finally {
+            loading.remove(key, future);
+        }
+    }
+
+    /**
+     * Cached value of {@code key}, or null when it is not cached or has expired. Never loads.
+     */
+    public V getIfPresent(K key) {
+        Node<K, V> node = data.get(key);
+        long now = System.nanoTime();
+        if (node == null || isExpired(node, now)) {
+            missCount.increment();
+            return null;
+        }
+        hitCount.increment();
+        afterRead(node, now);
+        return node.value;
+    }
+
+    public void invalidate(K key) {
+        Node<K, V> node = data.remove(key);
+        if (node != null) {
+            evictionLock.lock();
+            try {
+                unlink(node);
+            } finally {
+                evictionLock.unlock();
+            }
+        }
+    }
+
+    public void invalidateAll() {
+        for (K key : data.keySet()) {
+            invalidate(key);
+        }
+    }
+
+    /**
+     * Remove expired entries and apply pending reads to the eviction policy.
+     */
+    public void cleanUp() {
+        evictionLock.lock();
+        try {
+            drainReadBuffer();
+            if (expireAfterWriteNanos > 0) {
+                long now = System.nanoTime();
+                Iterator<Node<K, V>> nodes = data.values().iterator();
+                while (nodes.hasNext()) {
+                    Node<K, V> node = nodes.next();
+                    if (isExpired(node, now) && data.remove(node.key, node)) {
+                        unlink(node);
+                    }
+                }
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Number of cached entries, may include expired entries that were not cleaned up yet.
+     */
+    public long size() {
+        return data.size();
+    }
+
+    /**
+     * Total weight of the cached entries, equal to {@link #size()} when the cache is bounded by size.
+     */
+    public long weight() {
+        evictionLock.lock();
+        try {
+            return window.weight + probation.weight + protectedQueue.weight;
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    public CacheStats stats() {
+        return new CacheStats(hitCount.sum(), missCount.sum(), loadSuccessCount.sum(), loadFailureCount.sum(),
+                totalLoadTime.sum(), evictionCount.sum());
+    }
+
+    private V load(K key) throws ExecutionException {
+        long start = System.nanoTime();
+        try {
+            V value = loader.load(key);
+            if (value == null) {
+                throw new NullPointerException("loader returned null for key " + key);
+            }
+            loadSuccessCount.increment();
+            return value;
+        } catch (Exception e) {
+            loadFailureCount.increment();
+            throw new ExecutionException(e);
+        } finally {
+            totalLoadTime.add(System.nanoTime() - start);
+        }
+    }
+
+    private void put(K key, V value) {
+        Node<K, V> node = new Node<>(key, value, weigh(key, value), System.nanoTime());
+        Node<K, V> old = data.put(key, node);
+        evictionLock.lock();
+        try {
+            if (old != null) {
+                unlink(old);
+            }
+            if (!node.removed) {
+                // not invalidated in the meantime
+                sketch.increment(key);
+                window.addLast(node);
+                node.queue = Queue.WINDOW;
+                evict();
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private boolean isExpired(Node<K, V> node, long now) {
+        return expireAfterWriteNanos > 0 && now - node.writeTime >= expireAfterWriteNanos;
+    }
+
+    private int weigh(K key, V value) {
+        if (weigher == null) {
+            return 1;
+        }
+        int weight = weigher.applyAsInt(key, value);
+        if (weight < 0) {
+            throw new IllegalArgumentException("negative weight for key " + key);
+        }
+        return weight;
+    }
+
+    private void afterRead(Node<K, V> node, long now) {
+        long index = readBufferWrites.getAndIncrement();
+        readBuffer.lazySet((int) (index & READ_BUFFER_MASK), node);
+        if ((index & READ_BUFFER_MASK) == READ_BUFFER_MASK && evictionLock.tryLock()) {
+            try {
+                drainReadBuffer();
+            } finally {
+                evictionLock.unlock();
+            }
+        }
+        if (refreshAfterWriteNanos > 0 && now - node.writeTime >= refreshAfterWriteNanos
+                && node.refreshing.compareAndSet(false, true)) {
+            refresh(node);
+        }
+    }
+
+    private void refresh(Node<K, V> node) {
+        try {
+            executor.execute(() -> {
+                try {
+                    V value = load(node.key);
+                    int weight = weigh(node.key, value);
+                    evictionLock.lock();
+                    try {
+                        if (!node.removed) {
+                            node.value = value;
+                            node.writeTime = System.nanoTime();
+                            reweigh(node, weight);
+                            evict();
+                        }
+                    } finally {
+                        evictionLock.unlock();
+                    }
+                } catch (ExecutionException e) {
+                    log.error("Refresh of key {} failed: {}", node.key, e.getCause().getMessage());
+                } catch (RuntimeException e) {
+                    // weigher failures are not wrapped by load, the old value stays like for a failed load
+                    log.error("Refresh of key {} failed: {}", node.key, e.getMessage());
+                } finally {
+                    node.refreshing.set(false);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            log.error("Refresh of key {} rejected", node.key);
+            node.refreshing.set(false);
+        }
+    }
+
+    // methods below are called with evictionLock held
+
+    private void drainReadBuffer() {
+        for (int i = 0; i < READ_BUFFER_SIZE; i++) {
+            Node<K, V> node = readBuffer.getAndSet(i, null);
+            if (node != null && !node.removed && node.queue != null) {
+                onAccess(node);
+            }
+        }
+    }
+
+    private void onAccess(Node<K, V> node) {
+        sketch.increment(node.key);
+        switch (node.queue) {
+            case WINDOW:
+                window.moveToLast(node);
+                break;
+            case PROBATION:
+                probation.remove(node);
+                protectedQueue.addLast(node);
+                node.queue = Queue.PROTECTED;
+                while (protectedQueue.weight > protectedMaximum && protectedQueue.head != node) {
+                    Node<K, V> demoted = protectedQueue.head;
+                    protectedQueue.remove(demoted);
+                    probation.addLast(demoted);
+                    demoted.queue = Queue.PROBATION;
+                }
+                break;
+            case PROTECTED:
+                protectedQueue.moveToLast(node);
+                break;
+        }
+    }
+
+    private void reweigh(Node<K, V> node, int weight) {
+        Deque<K, V> deque = dequeOf(node);
+        deque.weight += weight - node.weight;
+        node.weight = weight;
+    }
+
+    /**
+     * Move entries that overflow the window to the main space, and let each one compete with the least
+     * recently used entry of the main space when the cache is full.
+     */
+    private void evict() {
+        while (window.weight > windowMaximum && window.head != null) {
+            Node<K, V> candidate = window.head;
+            window.remove(candidate);
+            probation.addLast(candidate);
+            candidate.queue = Queue.PROBATION;
+
+            while (totalWeight() > maximum) {
+                Node<K, V> victim = probation.head != candidate ? probation.head : protectedQueue.head;
+                if (victim == null || candidate.removed) {
+                    break;
+                }
+                if (sketch.frequency(candidate.key) > sketch.frequency(victim.key)) {
+                    evict(victim);
+                } else {
+                    evict(candidate);
+                }
+            }
+        }
+        // weights can shrink the window below its maximum while the cache is still too heavy
+        while (totalWeight() > maximum) {
+            Node<K, V> victim = probation.head != null ? probation.head
+                    : protectedQueue.head != null ? protectedQueue.head : window.head;
+            if (victim == null) {
+                break;
+            }
+            evict(victim);
+        }
+    }
+
+    private void evict(Node<K, V> node) {
+        if (data.remove(node.key, node)) {
+            evictionCount.increment();
+        }
+        unlink(node);
+    }
+
+    private void unlink(Node<K, V> node) {
+        if (!node.removed && node.queue != null) {
+            dequeOf(node).remove(node);
+        }
+        node.removed = true;
+    }
+
+    private Deque<K, V> dequeOf(Node<K, V> node) {
+        switch (node.queue) {
+            case WINDOW:
+                return window;
+            case PROBATION:
+                return probation;
+            case PROTECTED:
+            default:
+                return protectedQueue;
+        }
+    }
+
+    private long totalWeight() {
+        return window.weight + probation.weight + protectedQueue.weight;
+    }
+}
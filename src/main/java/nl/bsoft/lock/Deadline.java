@@ -0,0 +1,129 @@
+package nl.bsoft.lock;
+
+import java.util.concurrent.*;
+
+/**
+ * Point in time after which nobody is interested in the result of a task anymore.
+ * <p>
+ * A deadline can be bound to the current thread with {@link #call(Callable)}; {@link DeadlineExecutor} does that
+ * for every task it runs, so tasks submitted from within a task inherit the deadline of their parent.
+ * Long running tasks call {@link #checkCurrent()} now and then, which costs a thread local lookup and a
+ * {@link System#nanoTime()}, and stop with a {@link DeadlineExceededException} once the deadline has passed.
+ */
+public final class Deadline implements Comparable<Deadline> {
+
+    private static final ThreadLocal<Deadline> CURRENT = new ThreadLocal<>();
+
+    private final long nanoTime;
+
+    private Deadline(long nanoTime) {
+        this.nanoTime = nanoTime;
+    }
+
+    public static Deadline after(long duration, TimeUnit unit) {
+        return new Deadline(System.nanoTime() + unit.toNanos(duration));
+    }
+
+    /**
+     * Deadline bound to the current thread, or null when there is none.
+     */
+    public static Deadline current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * @throws DeadlineExceededException when the deadline of the current thread has passed
+     */
+    public static void checkCurrent() {
+        Deadline deadline = CURRENT.get();
+        if (deadline != null) {
+            deadline.check();
+        }
+    }
+
+    /**
+     * The earlier of the current deadline and one {@code duration} from now.
+     */
+    public static Deadline currentOrAfter(long duration, TimeUnit unit) {
+        return after(duration, unit).min(current());
+    }
+
+    public boolean isExpired() {
+        return System.nanoTime() - nanoTime >= 0;
+    }
+
+    /**
+     * @throws DeadlineExceededException when this deadline has passed
+     */
+    public void check() {
+        if (isExpired()) {
+            throw new DeadlineExceededException("deadline exceeded by " + -timeRemaining(TimeUnit.MICROSECONDS) + " us");
+        }
+    }
+
+    /**
+     * Time left, negative when the deadline has passed.
+     */
+    public long timeRemaining(TimeUnit unit) {
+        return unit.convert(nanoTime - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * The earlier of this deadline and {@code other}, null counts as no deadline.
+     */
+    public Deadline min(Deadline other) {
+        return other == null || compareTo(other) <= 0 ? this : other;
+    }
+
+    /**
+     * Run {@code task} in the current thread with this deadline bound to it.
+     */
+    public <T> T call(Callable<T> task) throws Exception {
+        Deadline previous = CURRENT.get();
+        CURRENT.set(this);
+        try {
+            return task.call();
+        } finally {
+            if (previous == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previous);
+            }
+        }
+    }
+
+    /**
+     * Wait for {@code future} until this deadline. When the deadline passes first the caller gives up: the future
+     * is cancelled, which interrupts the task unless other callers still wait for it (see {@link SingleFlight}).
+     *
+     * @throws DeadlineExceededException when the deadline passed before the result was there
+     */
+    public <T> T get(Future<T> future) throws InterruptedException, ExecutionException {
+        try {
+            return future.get(Math.max(0L, timeRemaining(TimeUnit.NANOSECONDS)), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            throw new DeadlineExceededException("gave up waiting at deadline");
+        }
+    }
+
+    @Override
+    public int compareTo(Deadline other) {
+        return Long.signum(nanoTime - other.nanoTime);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof Deadline && ((Deadline) other).nanoTime == nanoTime;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(nanoTime);
+    }
+
+    @Override
+    public String toString() {
+        return "Deadline{remaining=" + timeRemaining(TimeUnit.MILLISECONDS) + "ms}";
+    }
+}
@@ -0,0 +1,12 @@
+package nl.bsoft.lock;
+
+/**
+ * Thrown when work is started or continued after its {@link Deadline} has passed.
+ */
+public class DeadlineExceededException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public DeadlineExceededException(String message) {
+        super(message);
+    }
+}
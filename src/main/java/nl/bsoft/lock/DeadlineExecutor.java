@@ -0,0 +1,147 @@
+package nl.bsoft.lock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Executor wrapper that runs tasks under a {@link Deadline}.
+ * <p>
+ * A task takes the deadline of the thread that submits it, so nested submissions inherit the deadline of the
+ * task they are submitted from, optionally shortened with {@link #submit(Callable, long, TimeUnit)}. While it
+ * runs the deadline is bound to the worker thread for {@link Deadline#checkCurrent()}. A task that is still
+ * queued at its deadline is not started, and one that is still running is cancelled and its worker
+ * interrupted, so the worker is not kept busy with work nobody waits for anymore.
+ */
+public class DeadlineExecutor extends AbstractExecutorService {
+    private final Logger log = LoggerFactory.getLogger(DeadlineExecutor.class);
+
+    private final ExecutorService delegate;
+    private final ScheduledExecutorService timer;
+
+    /**
+     * @param delegate executor that runs the tasks
+     * @param timer    executor that cancels tasks at their deadline, set to remove cancelled timers from its queue
+     */
+    public DeadlineExecutor(ExecutorService delegate, ScheduledExecutorService timer) {
+        this.delegate = delegate;
+        this.timer = timer;
+        if (timer instanceof ScheduledThreadPoolExecutor) {
+            // most tasks finish in time, do not keep their timers around until the deadline
+            ((ScheduledThreadPoolExecutor) timer).setRemoveOnCancelPolicy(true);
+        }
+    }
+
+    /**
+     * Run {@code task} with the current deadline, shortened to {@code timeout} from now.
+     */
+    public <T> Future<T> submit(Callable<T> task, long timeout, TimeUnit unit) {
+        DeadlineTask<T> future = new DeadlineTask<>(task, Deadline.currentOrAfter(timeout, unit));
+        execute(future);
+        return future;
+    }
+
+    /**
+     * Run {@code task} with {@code deadline}, ignoring the current deadline.
+     */
+    public <T> Future<T> submit(Callable<T> task, Deadline deadline) {
+        DeadlineTask<T> future = new DeadlineTask<>(task, deadline);
+        execute(future);
+        return future;
+    }
+
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor(Callable<T> task) {
+        return new DeadlineTask<>(task, Deadline.current());
+    }
+
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor(Runnable task, T value) {
+        return new DeadlineTask<>(Executors.callable(task, value), Deadline.current());
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        DeadlineTask<?> task = command instanceof DeadlineTask
+                ? (DeadlineTask<?>) command
+                : (DeadlineTask<?>) newTaskFor(command, null);
+        task.schedule();
+        try {
+            delegate.execute(task);
+        } catch (RejectedExecutionException e) {
+            task.cancel(false);
+            throw e;
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        delegate.shutdown();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        return delegate.shutdownNow();
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return delegate.isShutdown();
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return delegate.isTerminated();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return delegate.awaitTermination(timeout, unit);
+    }
+
+    private class DeadlineTask<T> extends FutureTask<T> {
+        private final Deadline deadline;
+        private volatile ScheduledFuture<?> expiry;
+
+        DeadlineTask(Callable<T> task, Deadline deadline) {
+            super(deadline == null ? task : () -> deadline.call(task));
+            this.deadline = deadline;
+        }
+
+        void schedule() {
+            if (deadline == null) {
+                return;
+            }
+            expiry = timer.schedule(this::expire, Math.max(0L, deadline.timeRemaining(TimeUnit.NANOSECONDS)),
+                    TimeUnit.NANOSECONDS);
+            if (isDone()) {
+                expiry.cancel(false);
+            }
+        }
+
+        private void expire() {
+            if (cancel(true)) {
+                log.debug("Task cancelled at its deadline");
+            }
+        }
+
+        @Override
+        public void run() {
+            if (deadline != null && deadline.isExpired()) {
+                setException(new DeadlineExceededException("deadline passed before the task started"));
+                return;
+            }
+            super.run();
+        }
+
+        @Override
+        protected void done() {
+            ScheduledFuture<?> pending = expiry;
+            if (pending != null) {
+                pending.cancel(false);
+            }
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package nl.bsoft.lock;
+
+/**
+ * Count-min sketch with 4-bit counters that estimates how often a key was seen recently, the TinyLFU part of
+ * {@link ConcurrentCache}. Sixteen counters are packed in each long; every key maps to one counter in each
+ * of four rows and the estimate is the smallest of them. When the number of increments reaches ten times
+ * the capacity all counters are halved, so old popularity fades out.
+ * <p>
+ * Not thread safe, the cache only uses it under its eviction lock.
+ */
+class FrequencySketch {
+    private static final long[] SEEDS = {
+            0x97cb3127L, 0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL};
+    private static final long RESET_MASK = 0x7777777777777777L;
+
+    private final long[] table;
+    private final int tableMask;
+    private final int sampleSize;
+    private int size = 0;
+
+    FrequencySketch(long capacity) {
+        int maximum = (int) Math.min(Math.max(capacity, 16L), 1 << 30);
+        int length = Integer.highestOneBit(maximum - 1) << 1;
+        this.table = new long[length];
+        this.tableMask = length - 1;
+        this.sampleSize = 10 * maximum;
+    }
+
+    int frequency(Object key) {
+        int hash = spread(key.hashCode());
+        int frequency = Integer.MAX_VALUE;
+        for (int row = 0; row < 4; row++) {
+            long h = rehash(hash, row);
+            int index = (int) (h >>> 32) & tableMask;
+            int offset = (int) (h & 15) << 2;
+            frequency = Math.min(frequency, (int) ((table[index] >>> offset) & 15L));
+        }
+        return frequency;
+    }
+
+    void increment(Object key) {
+        int hash = spread(key.hashCode());
+        boolean added = false;
+        for (int row = 0; row < 4; row++) {
+            long h = rehash(hash, row);
+            int index = (int) (h >>> 32) & tableMask;
+            int offset = (int) (h & 15) << 2;
+            if (((table[index] >>> offset) & 15L) != 15L) {
+                table[index] += 1L << offset;
+                added = true;
+            }
+        }
+        if (added && ++size == sampleSize) {
+            reset();
+        }
+    }
+
+    private void reset() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        size = size / 2;
+    }
+
+    private static int spread(int hash) {
+        hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+        hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+        return (hash >>> 16) ^ hash;
+    }
+
+    private static long rehash(int hash, int row) {
+        long h = (hash + SEEDS[row]) * SEEDS[row];
+        return h ^ (h >>> 29);
+    }
+}
@@ -0,0 +1,300 @@
+package nl.bsoft.lock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+
+/**
+ * Durable, append-only sink for task results.
+ * <p>
+ * Any thread hands in results through a lock-free queue; one writer thread collects them into batches and
+ * writes each batch to the file with a single write and a single {@code fsync}, so durable throughput grows
+ * with the batch size instead of being bound by the fsync rate. A batch is written when it holds
+ * {@code maxBatchSize} records or when its oldest record has waited {@code maxLatency}, whichever comes first.
+ * <p>
+ * Every record is stored as a 4 byte length followed by the serialized result. The future returned by
+ * {@link #append(Object)} completes with the file offset of the record once it is on disk.
+ */
+public class GroupCommitSink<T> implements AutoCloseable {
+    private final Logger log = LoggerFactory.getLogger(GroupCommitSink.class);
+
+    private static final class Record {
+        final byte[] bytes;
+        final long arrived;
+        final CompletableFuture<Long> durable = new CompletableFuture<>();
+
+        Record(byte[] bytes, long arrived) {
+            this.bytes = bytes;
+            this.arrived = arrived;
+        }
+    }
+
+    private final FileChannel channel;
+    private final Function<? super T, byte[]> serializer;
+    private final int maxBatchSize;
+    private final long maxLatencyNanos;
+
+    private final ConcurrentLinkedQueue<Record> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean writerWaiting = new AtomicBoolean();
+    private final AtomicInteger appending = new AtomicInteger();
+    private final Thread writer;
+    private volatile boolean closed = false;
+
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder records = new LongAdder();
+
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+    private long position;
+
+    /**
+     * Sink that stores the {@code toString()} of each result as UTF-8.
+     */
+    public GroupCommitSink(Path file, int maxBatchSize, long maxLatency, TimeUnit unit) throws IOException {
+        this(file, maxBatchSize, maxLatency, unit, result -> String.valueOf(result).getBytes(StandardCharsets.UTF_8));
+    }
+
+    public GroupCommitSink(Path file, int maxBatchSize, long maxLatency, TimeUnit unit,
+                           Function<? super T, byte[]> serializer) throws IOException {
+        this(FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND),
+                "group-commit-" + file.getFileName(), maxBatchSize, maxLatency, unit, serializer);
+    }
+
+    /**
+     * Sink writing to an already opened channel, which it closes when it is closed.
+     */
+    GroupCommitSink(FileChannel channel, String writerName, int maxBatchSize, long maxLatency, TimeUnit unit,
+                    Function<? super T, byte[]> serializer) throws IOException {
+        if (maxBatchSize < 1 || maxLatency < 0) {
+            channel.close();
+            throw new IllegalArgumentException("maxBatchSize must be positive and maxLatency not negative");
+        }
+        this.channel = channel;
+        this.position = channel.size();
+        this.serializer = serializer;
+        this.maxBatchSize = maxBatchSize;
+        this.maxLatencyNanos = unit.toNanos(maxLatency);
+        this.writer = new Thread(this::write, writerName);
+        this.writer.start();
+    }
+
+    /**
+     * Queue {@code result} for writing.
+     *
+     * @return future that completes with the offset of the record in the file once it is durable, or
+     * exceptionally when writing failed or the sink was closed
+     */
+    public CompletableFuture<Long> append(T result) {
+        Record record = new Record(serializer.apply(result), System.nanoTime());
+        // announce before checking the flag, so close waits for this record before it fails the leftovers
+        appending.incrementAndGet();
+        try {
+            if (closed) {
+                record.durable.completeExceptionally(new IllegalStateException("sink is closed"));
+                return record.durable;
+            }
+            queue.offer(record);
+            if (writerWaiting.get()) {
+                LockSupport.unpark(writer);
+            }
+            return record.durable;
+        } finally {
+            appending.decrementAndGet();
+        }
+    }
+
+    /**
+     * Number of batches written, each with one fsync.
+     */
+    public long getBatchCount() {
+        return batches.sum();
+    }
+
+    /**
+     * Number of records made durable.
+     */
+    public long getRecordCount() {
+        return records.sum();
+    }
+
+    /**
+     * Write what is queued, then stop the writer and close the file.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            log.error("close interrupted");
+            Thread.currentThread().interrupt();
+        } finally {
+            // results appended while closing are not written, wait for appends that missed the flag
+            while (appending.get() != 0) {
+                Thread.yield();
+            }
+            Record late;
+            while ((late = queue.poll()) != null) {
+                late.durable.completeExceptionally(new IllegalStateException("sink is closed"));
+            }
+            channel.close();
+        }
+    }
+
+    /**
+     * Read back all records of a file written by a sink.
+     */
+    public static List<byte[]> read(Path file) throws IOException {
+        List<byte[]> result = new ArrayList<>();
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer length = ByteBuffer.allocate(4);
+            while (readFully(in, length)) {
+                length.flip();
+                ByteBuffer payload = ByteBuffer.allocate(length.getInt());
+                if (!readFully(in, payload)) {
+                    throw new EOFException("truncated record in " + file);
+                }
+                result.add(payload.array());
+                length.clear();
+            }
+        }
+        return result;
+    }
+
+    private static boolean readFully(FileChannel in, ByteBuffer target) throws IOException {
+        while (target.hasRemaining()) {
+            if (in.read(target) < 0) {
+                if (target.position() == 0) {
+                    return false;
+                }
+                throw new EOFException("unexpected end of file");
+            }
+        }
+        return true;
+    }
+
+    private void write() {
+        List<Record> batch = new ArrayList<>(maxBatchSize);
+        for (; ; ) {
+            Record first = awaitRecord(Long.MAX_VALUE);
+            if (first == null) {
+                // closed and drained
+                return;
+            }
+            batch.add(first);
+            long deadline = first.arrived + maxLatencyNanos;
+            while (batch.size() < maxBatchSize) {
+                Record next = queue.poll();
+                if (next == null) {
+                    if (closed || deadline - System.nanoTime() <= 0) {
+                        break;
+                    }
+                    next = awaitRecord(deadline);
+                    if (next == null) {
+                        break;
+                    }
+                }
+                batch.add(next);
+            }
+            commit(batch);
+            batch.clear();
+        }
+    }
+
+    /**
+     * @return the next record, or null at the deadline or when the sink is closed and empty
+     */
+    private Record awaitRecord(long deadline) {
+        for (; ; ) {
+            Record record = queue.poll();
+            if (record != null) {
+                return record;
+            }
+            if (closed) {
+                return queue.poll();
+            }
+            long remaining = deadline == Long.MAX_VALUE ? Long.MAX_VALUE : deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return null;
+            }
+            writerWaiting.set(true);
+            // re-check after announcing, an append may have missed the flag
+            if (queue.isEmpty() && !closed) {
+                if (remaining == Long.MAX_VALUE) {
+                    LockSupport.park(this);
+                } else {
+                    LockSupport.parkNanos(this, remaining);
+                }
+            }
+            writerWaiting.set(false);
+        }
+    }
+
+    private void commit(List<Record> batch) {
+        int size = 0;
+        for (Record record : batch) {
+            size += 4 + record.bytes.length;
+        }
+        if (buffer.capacity() < size) {
+            buffer = ByteBuffer.allocateDirect(Integer.highestOneBit(size - 1) << 1);
+        }
+        buffer.clear();
+        for (Record record : batch) {
+            buffer.putInt(record.bytes.length);
+            buffer.put(record.bytes);
+        }
+        buffer.flip();
+
+        long start = position;
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        } catch (IOException e) {
+            log.error("Writing batch of {} records failed: {}", batch.size(), e.getMessage());
+            // the file may now hold part of the batch, cut it off so later records follow the last complete one
+            try {
+                channel.truncate(start);
+                position = start;
+            } catch (IOException truncateFailed) {
+                log.error("Truncating to offset {} failed: {}", start, truncateFailed.getMessage());
+                try {
+                    position = channel.size();
+                } catch (IOException ignored) {
+                    // keep the old position
+                }
+            }
+            for (Record record : batch) {
+                record.durable.completeExceptionally(e);
+            }
+            return;
+        }
+        position += size;
+        batches.increment();
+        records.add(batch.size());
+
+        long offset = start;
+        for (Record record : batch) {
+            record.durable.complete(offset);
+            offset += 4 + record.bytes.length;
+        }
+    }
+}
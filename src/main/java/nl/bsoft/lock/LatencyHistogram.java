@@ -0,0 +1,285 @@
+package nl.bsoft.lock;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed size histogram of non-negative long values, typically latencies in nanoseconds, that many threads can
+ * record into at once.
+ * <p>
+ * Buckets are log-linear: values below {@code 2^precisionBits} have a bucket of their own, above that every
+ * power of two is split in {@code 2^(precisionBits - 1)} equal buckets, so the relative error of a reported
+ * value stays below {@code 2^-(precisionBits - 1)} over the whole range of long. Recording is a single atomic
+ * increment of a preallocated counter and never allocates. Use {@link LatencyRecorder} for interval snapshots
+ * that do not disturb the recording threads.
+ */
+public class LatencyHistogram {
+    private static final int ENCODING_MAGIC = 0x4c480001;
+
+    private final int precisionBits;
+    private final int subBuckets;
+    private final int halfBuckets;
+    private final AtomicLongArray counts;
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Histogram with a relative error below 3.2%.
+     */
+    public LatencyHistogram() {
+        this(6);
+    }
+
+    /**
+     * @param precisionBits 2 - 16, every extra bit halves the relative error and doubles the memory used
+     */
+    public LatencyHistogram(int precisionBits) {
+        if (precisionBits < 2 || precisionBits > 16) {
+            throw new IllegalArgumentException("precisionBits must be between 2 and 16: " + precisionBits);
+        }
+        this.precisionBits = precisionBits;
+        this.subBuckets = 1 << precisionBits;
+        this.halfBuckets = subBuckets / 2;
+        this.counts = new AtomicLongArray((65 - precisionBits) * halfBuckets);
+    }
+
+    public void record(long value) {
+        record(value, 1L);
+    }
+
+    /**
+     * Record {@code count} occurrences of {@code value}.
+     */
+    public void record(long value, long count) {
+        if (value < 0) {
+            throw new IllegalArgumentException("value must not be negative: " + value);
+        }
+        counts.getAndAdd(index(value), count);
+        if (value > max.get()) {
+            max.accumulateAndGet(value, Math::max);
+        }
+    }
+
+    /**
+     * Record {@code value} and correct for coordinated omission: when {@code value} is larger than the interval
+     * at which values are expected, the values of the operations that could not be issued while this one was
+     * stalled are recorded too.
+     */
+    public void recordWithExpectedInterval(long value, long expectedInterval) {
+        record(value);
+        if (expectedInterval <= 0) {
+            return;
+        }
+        for (long missing = value - expectedInterval; missing >= expectedInterval; missing -= expectedInterval) {
+            record(missing);
+        }
+    }
+
+    public long getTotalCount() {
+        long total = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            total += counts.get(i);
+        }
+        return total;
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public double getMean() {
+        long total = 0;
+        double sum = 0.0;
+        for (int i = 0; i < counts.length(); i++) {
+            long count = counts.get(i);
+            if (count > 0) {
+                total += count;
+                sum += count * (double) (lowestValue(i) + highestValue(i)) / 2.0;
+            }
+        }
+        return total == 0 ? 0.0 : sum / total;
+    }
+
+    /**
+     * Value below which {@code percentile} percent of the recorded values fall, reported as the highest value
+     * of its bucket.
+     *
+     * @param percentile 0 - 100, 100 returns the exact maximum
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (percentile < 0.0 || percentile > 100.0) {
+            throw new IllegalArgumentException("percentile must be between 0 and 100: " + percentile);
+        }
+        long[] snapshot = new long[counts.length()];
+        long total = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        long maximum = max.get();
+        if (total == 0) {
+            return 0;
+        }
+        if (percentile == 100.0) {
+            return maximum;
+        }
+        long rank = Math.max(1L, (long) Math.ceil(percentile / 100.0 * total));
+        long seen = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(maximum, highestValue(i));
+            }
+        }
+        return maximum;
+    }
+
+    /**
+     * Add all values of {@code other}, which must have the same precision.
+     */
+    public void add(LatencyHistogram other) {
+        if (other.precisionBits != precisionBits) {
+            throw new IllegalArgumentException("precision differs: " + other.precisionBits + " != " + precisionBits);
+        }
+        for (int i = 0; i < counts.length(); i++) {
+            long count = other.counts.get(i);
+            if (count != 0) {
+                counts.getAndAdd(i, count);
+            }
+        }
+        long otherMax = other.max.get();
+        if (otherMax > max.get()) {
+            max.accumulateAndGet(otherMax, Math::max);
+        }
+    }
+
+    /**
+     * Clear all counts. Values recorded concurrently may or may not survive, see {@link LatencyRecorder} for a
+     * reset that loses nothing.
+     */
+    public void reset() {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0L);
+        }
+        max.set(0L);
+    }
+
+    public int getPrecisionBits() {
+        return precisionBits;
+    }
+
+    /**
+     * Compact binary form: a header with the precision and the maximum, followed by the counts as variable length
+     * numbers where runs of empty buckets are collapsed into one negative number.
+     */
+    public byte[] encode() {
+        ByteBuffer buffer = ByteBuffer.allocate(16 + counts.length() * 10);
+        buffer.putInt(ENCODING_MAGIC);
+        buffer.put((byte) precisionBits);
+        putVarLong(buffer, max.get());
+
+        int last = counts.length() - 1;
+        while (last >= 0 && counts.get(last) == 0) {
+            last--;
+        }
+        int zeros = 0;
+        for (int i = 0; i <= last; i++) {
+            long count = counts.get(i);
+            if (count == 0) {
+                zeros++;
+                continue;
+            }
+            if (zeros > 0) {
+                putVarLong(buffer, zigZag(-zeros));
+                zeros = 0;
+            }
+            putVarLong(buffer, zigZag(count));
+        }
+        byte[] bytes = new byte[buffer.position()];
+        buffer.flip();
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Histogram from the result of {@link #encode()}.
+     *
+     * @throws IllegalArgumentException when {@code bytes} is not an encoded histogram
+     */
+    public static LatencyHistogram decode(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        try {
+            if (buffer.getInt() != ENCODING_MAGIC) {
+                throw new IllegalArgumentException("not an encoded histogram");
+            }
+            LatencyHistogram histogram = new LatencyHistogram(buffer.get());
+            histogram.max.set(getVarLong(buffer));
+            int index = 0;
+            while (buffer.hasRemaining()) {
+                long value = unZigZag(getVarLong(buffer));
+                if (value < 0) {
+                    index += (int) -value;
+                } else {
+                    histogram.counts.set(index++, value);
+                }
+            }
+            return histogram;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("corrupt encoded histogram", e);
+        }
+    }
+
+    private int index(long value) {
+        if (value < subBuckets) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - (precisionBits - 1);
+        return shift * halfBuckets + (int) (value >>> shift);
+    }
+
+    private long lowestValue(int index) {
+        if (index < subBuckets) {
+            return index;
+        }
+        int shift = index / halfBuckets - 1;
+        long top = index % halfBuckets + halfBuckets;
+        return top << shift;
+    }
+
+    private long highestValue(int index) {
+        if (index < subBuckets) {
+            return index;
+        }
+        int shift = index / halfBuckets - 1;
+        return lowestValue(index) + (1L << shift) - 1;
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void putVarLong(ByteBuffer buffer, long value) {
+        while ((value & ~0x7fL) != 0) {
+            buffer.put((byte) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    private static long getVarLong(ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("variable length number too long");
+    }
+}
@@ -0,0 +1,92 @@
+package nl.bsoft.lock;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Records values from many threads into a {@link LatencyHistogram} and hands out interval histograms, each
+ * holding the values recorded since the previous one.
+ * <p>
+ * Taking an interval swaps in a fresh histogram. Recorders are never blocked by that: they only bump an epoch
+ * counter before and after recording, and the reader waits until every recorder that might still hold the old
+ * histogram has left it (a writer-reader phaser). No value is lost or counted twice.
+ */
+public class LatencyRecorder {
+
+    private final int precisionBits;
+    private volatile LatencyHistogram active;
+
+    // writers enter with startEpoch and leave on the end counter of the phase they entered in,
+    // the sign of startEpoch tells which phase is current
+    private final AtomicLong startEpoch = new AtomicLong(0);
+    private final AtomicLong evenEndEpoch = new AtomicLong(0);
+    private final AtomicLong oddEndEpoch = new AtomicLong(Long.MIN_VALUE);
+
+    private final Object readerLock = new Object();
+
+    public LatencyRecorder() {
+        this(6);
+    }
+
+    public LatencyRecorder(int precisionBits) {
+        this.precisionBits = precisionBits;
+        this.active = new LatencyHistogram(precisionBits);
+    }
+
+    public void record(long value) {
+        long epoch = startEpoch.getAndIncrement();
+        try {
+            active.record(value);
+        } finally {
+            exit(epoch);
+        }
+    }
+
+    public void recordWithExpectedInterval(long value, long expectedInterval) {
+        long epoch = startEpoch.getAndIncrement();
+        try {
+            active.recordWithExpectedInterval(value, expectedInterval);
+        } finally {
+            exit(epoch);
+        }
+    }
+
+    /**
+     * Values recorded since the previous call, or since construction for the first call.
+     */
+    public LatencyHistogram getIntervalHistogram() {
+        synchronized (readerLock) {
+            LatencyHistogram interval = active;
+            active = new LatencyHistogram(precisionBits);
+            flipPhase();
+            return interval;
+        }
+    }
+
+    private void exit(long epoch) {
+        if (epoch < 0) {
+            oddEndEpoch.getAndIncrement();
+        } else {
+            evenEndEpoch.getAndIncrement();
+        }
+    }
+
+    /**
+     * Start a new phase and wait until all writers that entered in the previous phase have left.
+     */
+    private void flipPhase() {
+        boolean nextPhaseIsEven = startEpoch.get() < 0;
+        long initialStartValue = nextPhaseIsEven ? 0 : Long.MIN_VALUE;
+        if (nextPhaseIsEven) {
+            evenEndEpoch.set(initialStartValue);
+        } else {
+            oddEndEpoch.set(initialStartValue);
+        }
+        long startValueAtFlip = startEpoch.getAndSet(initialStartValue);
+
+        AtomicLong previousEnd = nextPhaseIsEven ? oddEndEpoch : evenEndEpoch;
+        while (previousEnd.get() != startValueAtFlip) {
+            LockSupport.parkNanos(10_000L);
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package nl.bsoft.lock;
+
+/**
+ * Strategy that decides how many calls may be in flight at once, based on the outcome of finished calls.
+ * Used by {@link ConcurrencyLimiter}.
+ */
+public interface LimitAlgorithm {
+
+    /**
+     * Current limit, read on every acquire so it must be cheap.
+     */
+    int getLimit();
+
+    /**
+     * Called after every finished call.
+     *
+     * @param rttNanos time the call took
+     * @param inFlight number of calls in flight when this call started
+     * @param dropped  true when the call failed or timed out and the dependency should be treated as overloaded
+     */
+    void onSample(long rttNanos, int inFlight, boolean dropped);
+}
@@ -0,0 +1,479 @@
+package nl.bsoft.lock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Drives a counter guarded by one of the locking strategies from many threads and measures throughput and
+ * latency.
+ * <p>
+ * In closed loop every worker starts the next operation as soon as the previous one is done. In open loop
+ * operations are started on a fixed schedule and latency is measured from the moment an operation should
+ * have started, so a stall is charged to every operation that was delayed by it. Closed loop results are
+ * corrected for the same effect by back-filling the operations that would have been issued during a stall,
+ * using the mean latency seen during warm-up as the expected interval. Without a warm-up there is no expected
+ * interval and closed loop latencies are reported uncorrected.
+ */
+public class LoadGenerator {
+    private final Logger log = LoggerFactory.getLogger(LoadGenerator.class);
+
+    public enum Strategy {
+        UNSYNCHRONIZED, SYNCHRONIZED, REENTRANT, READ_WRITE, STAMPED, ATOMIC, ADDER
+    }
+
+    public enum ExecutorType {
+        FIXED, CACHED, WORK_STEALING
+    }
+
+    /**
+     * Settings of one run, see {@link App} for the matching command line options.
+     */
+    public static class Config {
+        int threads = 4;
+        long durationSeconds = 10;
+        long warmupSeconds = 2;
+        Strategy strategy = Strategy.SYNCHRONIZED;
+        ExecutorType executorType = ExecutorType.FIXED;
+        double readRatio = 0.0;
+        long rate = 0;  // operations per second over all threads, 0 is closed loop
+
+        public Config threads(int threads) {
+            if (threads < 1) {
+                throw new IllegalArgumentException("threads must be at least 1: " + threads);
+            }
+            this.threads = threads;
+            return this;
+        }
+
+        public Config duration(long seconds) {
+            if (seconds < 1) {
+                throw new IllegalArgumentException("duration must be at least 1 second: " + seconds);
+            }
+            this.durationSeconds = seconds;
+            return this;
+        }
+
+        public Config warmup(long seconds) {
+            if (seconds < 0) {
+                throw new IllegalArgumentException("warmup must not be negative: " + seconds);
+            }
+            this.warmupSeconds = seconds;
+            return this;
+        }
+
+        public Config strategy(Strategy strategy) {
+            this.strategy = strategy;
+            return this;
+        }
+
+        public Config executorType(ExecutorType executorType) {
+            this.executorType = executorType;
+            return this;
+        }
+
+        public Config readRatio(double readRatio) {
+            if (readRatio < 0.0 || readRatio > 1.0) {
+                throw new IllegalArgumentException("read ratio must be between 0 and 1: " + readRatio);
+            }
+            this.readRatio = readRatio;
+            return this;
+        }
+
+        public Config rate(long rate) {
+            if (rate < 0) {
+                throw new IllegalArgumentException("rate must not be negative: " + rate);
+            }
+            this.rate = rate;
+            return this;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT,
+                    "threads=%d duration=%ds warmup=%ds strategy=%s executor=%s read-ratio=%.2f %s",
+                    threads, durationSeconds, warmupSeconds, strategy, executorType, readRatio,
+                    rate == 0 ? "closed-loop" : "open-loop rate=" + rate + "/s");
+        }
+    }
+
+    /**
+     * Outcome of a run.
+     */
+    public static class Result {
+        private final Config config;
+        private final long operations;
+        private final long writes;
+        private final long counterValue;
+        private final long elapsedNanos;
+        private final LatencyHistogram histogram;
+        private final boolean corrected;
+
+        Result(Config config, long operations, long writes, long counterValue, long elapsedNanos, LatencyHistogram histogram,
+               boolean corrected) {
+            this.config = config;
+            this.operations = operations;
+            this.writes = writes;
+            this.counterValue = counterValue;
+            this.elapsedNanos = elapsedNanos;
+            this.histogram = histogram;
+            this.corrected = corrected;
+        }
+
+        public long getOperations() {
+            return operations;
+        }
+
+        public double getThroughput() {
+            return operations * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+        }
+
+        /**
+         * Latency in nanoseconds at {@code percentile} (0 - 100).
+         */
+        public long getLatency(double percentile) {
+            return histogram.getValueAtPercentile(percentile);
+        }
+
+        /**
+         * Increments that got lost, only non-zero for strategies that are not thread safe.
+         */
+        public long getLostUpdates() {
+            return writes - counterValue;
+        }
+
+        /**
+         * Whether latencies account for coordinated omission: always in open loop, in closed loop only after a
+         * warm-up that provided the expected interval.
+         */
+        public boolean isCorrected() {
+            return corrected;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(config).append('\n');
+            sb.append(String.format(Locale.ROOT, "operations: %d in %.3f s, throughput: %.0f ops/s, lost updates: %d%n",
+                    operations, elapsedNanos / 1e9, getThroughput(), getLostUpdates()));
+            sb.append(corrected ? "latency (us, coordinated omission corrected):\n"
+                    : "latency (us, not corrected for coordinated omission, no warm-up):\n");
+            for (double percentile : new double[]{50.0, 90.0, 99.0, 99.9, 99.99, 100.0}) {
+                sb.append(String.format(Locale.ROOT, "  %7.2f%%  %12.3f%n", percentile, getLatency(percentile) / 1000.0));
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Counter with read and write access under one of the strategies.
+     */
+    interface Target {
+        long read();
+
+        void write();
+    }
+
+    private final Config config;
+
+    public LoadGenerator(Config config) {
+        this.config = config;
+    }
+
+    public Result run() throws InterruptedException {
+        log.info("Start load: {}", config);
+
+        Target target = newTarget(config.strategy);
+        ExecutorService executor = newExecutor(config.executorType, config.threads);
+
+        long intervalNanos = config.rate == 0 ? 0 : Math.max(1L, TimeUnit.SECONDS.toNanos(config.threads) / config.rate);
+        long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(10);
+        long measureStart = start + TimeUnit.SECONDS.toNanos(config.warmupSeconds);
+        long end = measureStart + TimeUnit.SECONDS.toNanos(config.durationSeconds);
+
+        LongAdder writes = new LongAdder();
+        LongAdder warmupOperations = new LongAdder();
+        LongAdder warmupNanos = new LongAdder();
+        CountDownLatch warmedUp = new CountDownLatch(config.threads);
+
+        List<Future<Worker>> futures = new ArrayList<>();
+        try {
+            for (int i = 0; i < config.threads; i++) {
+                Worker worker = new Worker(target, i, start, measureStart, end, intervalNanos,
+                        writes, warmupOperations, warmupNanos, warmedUp);
+                futures.add(executor.submit(worker));
+            }
+            LatencyHistogram histogram = new LatencyHistogram();
+            long operations = 0;
+            for (Future<Worker> future : futures) {
+                Worker worker = future.get();
+                histogram.add(worker.histogram);
+                operations += worker.operations;
+            }
+            // closed loop workers correct with the mean warm-up latency, there is none without warm-up
+            long warmedUpOperations = warmupOperations.sum();
+            boolean corrected = intervalNanos > 0
+                    || (warmedUpOperations > 0 && warmupNanos.sum() / warmedUpOperations > 0);
+            return new Result(config, operations, writes.sum(), target.read(), end - measureStart, histogram,
+                    corrected);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("load worker failed", e.getCause());
+        } finally {
+            new ConcurrentUtils().stop(executor, 5);
+        }
+    }
+
+    private class Worker implements Callable<Worker> {
+        private final Target target;
+        private final long start;
+        private final long measureStart;
+        private final long end;
+        private final long intervalNanos;
+        private final LongAdder writes;
+        private final LongAdder warmupOperations;
+        private final LongAdder warmupNanos;
+        private final CountDownLatch warmedUp;
+
+        private final LatencyHistogram histogram = new LatencyHistogram();
+        private long operations = 0;
+
+        Worker(Target target, int id, long start, long measureStart, long end, long intervalNanos,
+               LongAdder writes, LongAdder warmupOperations, LongAdder warmupNanos, CountDownLatch warmedUp) {
+            this.target = target;
+            // spread the open loop schedules of the workers over one interval
+            this.start = start + (intervalNanos == 0 ? 0 : id * intervalNanos / config.threads);
+            this.measureStart = measureStart;
+            this.end = end;
+            this.intervalNanos = intervalNanos;
+            this.writes = writes;
+            this.warmupOperations = warmupOperations;
+            this.warmupNanos = warmupNanos;
+            this.warmedUp = warmedUp;
+        }
+
+        @Override
+        public Worker call() throws InterruptedException {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            double readRatio = config.readRatio;
+            long localWrites = 0;
+            long localWarmupOperations = 0;
+            long localWarmupNanos = 0;
+            boolean measuring = false;
+            long expectedInterval = 0;
+            long intended = start;
+
+            waitUntil(start);
+            for (; ; ) {
+                long begin = System.nanoTime();
+                if (intervalNanos > 0) {
+                    waitUntil(intended);
+                } else {
+                    intended = begin;
+                }
+                if (intended >= end) {
+                    break;
+                }
+                if (!measuring && intended >= measureStart) {
+                    warmupOperations.add(localWarmupOperations);
+                    warmupNanos.add(localWarmupNanos);
+                    warmedUp.countDown();
+                    warmedUp.await();
+                    long ops = warmupOperations.sum();
+                    expectedInterval = ops == 0 ? 0 : warmupNanos.sum() / ops;
+                    measuring = true;
+                    if (intervalNanos == 0) {
+                        intended = System.nanoTime();
+                    }
+                }
+
+                if (readRatio > 0.0 && random.nextDouble() < readRatio) {
+                    target.read();
+                } else {
+                    target.write();
+                    localWrites++;
+                }
+                long latency = System.nanoTime() - intended;
+
+                if (measuring) {
+                    operations++;
+                    if (intervalNanos > 0) {
+                        histogram.record(latency);
+                    } else {
+                        histogram.recordWithExpectedInterval(latency, expectedInterval);
+                    }
+                } else {
+                    localWarmupOperations++;
+                    localWarmupNanos += latency;
+                }
+                intended += intervalNanos;
+            }
+            if (!measuring) {
+                warmedUp.countDown();
+            }
+            writes.add(localWrites);
+            return this;
+        }
+
+        private void waitUntil(long time) throws InterruptedException {
+            long remaining;
+            while ((remaining = time - System.nanoTime()) > 0) {
+                if (remaining > TimeUnit.MICROSECONDS.toNanos(50)) {
+                    LockSupport.parkNanos(remaining - TimeUnit.MICROSECONDS.toNanos(50));
+                }
+                if (Thread.interrupted()) {
+                    throw new InterruptedException("load worker interrupted");
+                }
+            }
+        }
+    }
+
+    static ExecutorService newExecutor(ExecutorType type, int threads) {
+        switch (type) {
+            case CACHED:
+                return Executors.newCachedThreadPool();
+            case WORK_STEALING:
+                return Executors.newWorkStealingPool(threads);
+            case FIXED:
+            default:
+                return Executors.newFixedThreadPool(threads);
+        }
+    }
+
+    static Target newTarget(Strategy strategy) {
+        switch (strategy) {
+            case UNSYNCHRONIZED:
+                return new Target() {
+                    private final Counter counter = new Counter();
+
+                    public long read() {
+                        return counter.getCount();
+                    }
+
+                    public void write() {
+                        counter.increment();
+                    }
+                };
+            case SYNCHRONIZED:
+                return new Target() {
+                    private final Counter counter = new Counter();
+
+                    public synchronized long read() {
+                        return counter.getCount();
+                    }
+
+                    public synchronized void write() {
+                        counter.increment();
+                    }
+                };
+            case REENTRANT:
+                return new Target() {
+                    private final ReentrantLock lock = new ReentrantLock();
+                    private final Counter counter = new Counter();
+
+                    public long read() {
+                        lock.lock();
+                        try {
+                            return counter.getCount();
+                        } finally {
+                            lock.unlock();
+                        }
+                    }
+
+                    public void write() {
+                        lock.lock();
+                        try {
+                            counter.increment();
+                        } finally {
+                            lock.unlock();
+                        }
+                    }
+                };
+            case READ_WRITE:
+                return new Target() {
+                    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+                    private final Counter counter = new Counter();
+
+                    public long read() {
+                        lock.readLock().lock();
+                        try {
+                            return counter.getCount();
+                        } finally {
+                            lock.readLock().unlock();
+                        }
+                    }
+
+                    public void write() {
+                        lock.writeLock().lock();
+                        try {
+                            counter.increment();
+                        } finally {
+                            lock.writeLock().unlock();
+                        }
+                    }
+                };
+            case STAMPED:
+                return new Target() {
+                    private final StampedLock lock = new StampedLock();
+                    private final Counter counter = new Counter();
+
+                    public long read() {
+                        long stamp = lock.tryOptimisticRead();
+                        int count = counter.getCount();
+                        if (!lock.validate(stamp)) {
+                            stamp = lock.readLock();
+                            try {
+                                count = counter.getCount();
+                            } finally {
+                                lock.unlockRead(stamp);
+                            }
+                        }
+                        return count;
+                    }
+
+                    public void write() {
+                        long stamp = lock.writeLock();
+                        try {
+                            counter.increment();
+                        } finally {
+                            lock.unlockWrite(stamp);
+                        }
+                    }
+                };
+            case ATOMIC:
+                return new Target() {
+                    private final AtomicInteger counter = new AtomicInteger();
+
+                    public long read() {
+                        return counter.get();
+                    }
+
+                    public void write() {
+                        counter.incrementAndGet();
+                    }
+                };
+            case ADDER:
+            default:
+                return new Target() {
+                    private final LongAdder counter = new LongAdder();
+
+                    public long read() {
+                        return counter.sum();
+                    }
+
+                    public void write() {
+                        counter.increment();
+                    }
+                };
+        }
+    }
+}
@@ -0,0 +1,345 @@
+package nl.bsoft.lock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Thread pool whose submission path does not allocate.
+ * <p>
+ * A plain {@code executor.submit(this::incrementSync)} creates a bound method reference, a {@link FutureTask}
+ * and a queue node for every task. Here the task carriers, which double as result slots, are allocated once
+ * and recycled through a lock-free free list (a Treiber stack of indexes with a version stamp against ABA),
+ * and handed to the workers through an {@link ArrayBlockingQueue} that is large enough to never block. To keep
+ * the caller from allocating too, pass a long-lived action with its argument to
+ * {@link #execute(Consumer, Object)} instead of a capturing lambda.
+ * <p>
+ * When all carriers are in use the submitter waits, parking with backoff, until a worker frees one, which bounds
+ * the work in flight; an interrupted submitter is rejected, with its interrupt flag kept.
+ * {@link #shutdown()} lets queued and running tasks finish.
+ */
+public class PooledExecutor {
+    private final Logger log = LoggerFactory.getLogger(PooledExecutor.class);
+
+    /**
+     * Result of {@link #submit(Callable)}, a pooled slot that must be released once the result was read.
+     * It must be read by a single thread and not be used after {@link #release()}.
+     */
+    public interface PooledResult<T> {
+
+        T get() throws InterruptedException, ExecutionException;
+
+        boolean isDone();
+
+        /**
+         * Return the slot to the pool.
+         */
+        void release();
+    }
+
+    private static final long MIN_BACKOFF_NANOS = 1_000L;
+    private static final long MAX_BACKOFF_NANOS = 1_000_000L;
+
+    private static final int FREE = 0;
+    private static final int QUEUED = 1;
+    private static final int DONE = 2;
+
+    private final class Carrier implements Runnable, PooledResult<Object> {
+        final int index;
+
+        Consumer<Object> action;
+        Object argument;
+        Runnable runnable;
+        Callable<Object> callable;
+
+        Object result;
+        Throwable failure;
+        volatile int state = FREE;
+        volatile Thread waiter;
+
+        Carrier(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public void run() {
+            boolean fireAndForget = callable == null;
+            try {
+                if (action != null) {
+                    action.accept(argument);
+                } else if (runnable != null) {
+                    runnable.run();
+                } else {
+                    result = callable.call();
+                }
+            } catch (Throwable e) {
+                if (fireAndForget) {
+                    log.error("Task failed: {}", e.getMessage(), e);
+                } else {
+                    failure = e;
+                }
+            }
+            if (fireAndForget) {
+                recycle(this);
+            } else {
+                state = DONE;
+                Thread thread = waiter;
+                if (thread != null) {
+                    LockSupport.unpark(thread);
+                }
+            }
+        }
+
+        @Override
+        public Object get() throws InterruptedException, ExecutionException {
+            if (state != DONE) {
+                waiter = Thread.currentThread();
+                while (state != DONE) {
+                    LockSupport.park(this);
+                    if (Thread.interrupted()) {
+                        waiter = null;
+                        throw new InterruptedException("interrupted while waiting for pooled result");
+                    }
+                }
+                waiter = null;
+            }
+            if (failure != null) {
+                throw new ExecutionException(failure);
+            }
+            return result;
+        }
+
+        @Override
+        public boolean isDone() {
+            return state == DONE;
+        }
+
+        @Override
+        public void release() {
+            if (state != DONE) {
+                throw new IllegalStateException("result is not done yet");
+            }
+            recycle(this);
+        }
+    }
+
+    private final Carrier[] carriers;
+    private final int[] next;              // free list link per carrier, index + 1, 0 ends the list
+    private final AtomicLong head;         // version << 32 | index + 1 of the first free carrier
+    private final ArrayBlockingQueue<Carrier> queue;
+    private final List<Thread> workers = new ArrayList<>();
+    private final List<ReentrantLock> running = new ArrayList<>(); // held by a worker while it runs a task
+    private final AtomicInteger submitting = new AtomicInteger();  // submissions between acquire and enqueue
+    private final LongAdder exhausted = new LongAdder();
+    private volatile boolean shutdown = false;
+
+    /**
+     * @param threads  number of worker threads
+     * @param carriers number of pooled task carriers, the maximum number of tasks queued or running
+     */
+    public PooledExecutor(int threads, int carriers) {
+        this(threads, carriers, Executors.defaultThreadFactory());
+    }
+
+    public PooledExecutor(int threads, int carriers, ThreadFactory threadFactory) {
+        if (threads < 1 || carriers < 1) {
+            throw new IllegalArgumentException("threads and carriers must be at least 1");
+        }
+        this.carriers = new Carrier[carriers];
+        this.next = new int[carriers];
+        for (int i = 0; i < carriers; i++) {
+            this.carriers[i] = new Carrier(i);
+            this.next[i] = i + 2 <= carriers ? i + 2 : 0;
+        }
+        this.head = new AtomicLong(1L);
+        this.queue = new ArrayBlockingQueue<>(carriers);
+        for (int i = 0; i < threads; i++) {
+            ReentrantLock lock = new ReentrantLock();
+            running.add(lock);
+            workers.add(threadFactory.newThread(() -> work(lock)));
+        }
+        for (Thread worker : workers) {
+            worker.start();
+        }
+    }
+
+    /**
+     * Run {@code action} with {@code argument}, without a result.
+     */
+    @SuppressWarnings("unchecked")
+    public <A> void execute(Consumer<? super A> action, A argument) {
+        Carrier carrier = acquire();
+        carrier.action = (Consumer<Object>) action;
+        carrier.argument = argument;
+        enqueue(carrier);
+    }
+
+    /**
+     * Run {@code task} without a result.
+     */
+    public void execute(Runnable task) {
+        Carrier carrier = acquire();
+        carrier.runnable = task;
+        enqueue(carrier);
+    }
+
+    /**
+     * Run {@code task}, its result is delivered in a pooled slot that the caller must release.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> PooledResult<T> submit(Callable<T> task) {
+        Carrier carrier = acquire();
+        carrier.callable = (Callable<Object>) task;
+        enqueue(carrier);
+        return (PooledResult<T>) carrier;
+    }
+
+    public int getPoolSize() {
+        return carriers.length;
+    }
+
+    /**
+     * Number of submissions that had to wait because every carrier was in use.
+     */
+    public long getExhaustedCount() {
+        return exhausted.sum();
+    }
+
+    /**
+     * Reject new tasks, run the ones already submitted and stop the workers.
+     */
+    public void shutdown() {
+        shutdown = true;
+        // wake the workers waiting for a task, a worker that runs one sees the flag when it is done
+        for (int i = 0; i < workers.size(); i++) {
+            ReentrantLock lock = running.get(i);
+            if (lock.tryLock()) {
+                try {
+                    workers.get(i).interrupt();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (Thread worker : workers) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+            TimeUnit.NANOSECONDS.timedJoin(worker, remaining);
+            if (worker.isAlive()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Take a free carrier, the submission counts as in progress until {@link #enqueue(Carrier)}.
+     */
+    private Carrier acquire() {
+        // announce before checking the flag, so workers do not stop while this submission may still enqueue
+        submitting.incrementAndGet();
+        long backoff = MIN_BACKOFF_NANOS;
+        boolean waited = false;
+        for (; ; ) {
+            if (shutdown) {
+                submitting.decrementAndGet();
+                throw new RejectedExecutionException("executor is shut down");
+            }
+            long current = head.get();
+            int index = (int) current - 1;
+            if (index < 0) {
+                if (!waited) {
+                    exhausted.increment();
+                    waited = true;
+                }
+                LockSupport.parkNanos(this, backoff);
+                // park returns at once while the interrupt flag is set, give up instead of spinning
+                if (Thread.interrupted()) {
+                    submitting.decrementAndGet();
+                    Thread.currentThread().interrupt();
+                    throw new RejectedExecutionException("interrupted while waiting for a free carrier");
+                }
+                backoff = Math.min(backoff * 2, MAX_BACKOFF_NANOS);
+                continue;
+            }
+            long update = ((current >>> 32) + 1) << 32 | (next[index] & 0xffffffffL);
+            if (head.compareAndSet(current, update)) {
+                return carriers[index];
+            }
+        }
+    }
+
+    private void recycle(Carrier carrier) {
+        carrier.action = null;
+        carrier.argument = null;
+        carrier.runnable = null;
+        carrier.callable = null;
+        carrier.result = null;
+        carrier.failure = null;
+        carrier.state = FREE;
+        for (; ; ) {
+            long current = head.get();
+            next[carrier.index] = (int) current;
+            long update = ((current >>> 32) + 1) << 32 | (carrier.index + 1);
+            if (head.compareAndSet(current, update)) {
+                return;
+            }
+        }
+    }
+
+    private void enqueue(Carrier carrier) {
+        carrier.state = QUEUED;
+        // never full: there are as many slots as carriers
+        queue.offer(carrier);
+        submitting.decrementAndGet();
+    }
+
+    private void work(ReentrantLock lock) {
+        long backoff = MIN_BACKOFF_NANOS;
+        for (; ; ) {
+            Carrier carrier;
+            if (!shutdown) {
+                try {
+                    carrier = queue.take();
+                } catch (InterruptedException e) {
+                    // woken by shutdown
+                    continue;
+                }
+            } else {
+                carrier = queue.poll();
+                if (carrier == null) {
+                    if (submitting.get() == 0 && queue.isEmpty()) {
+                        return;
+                    }
+                    // a submission that started before shutdown is about to enqueue
+                    LockSupport.parkNanos(this, backoff);
+                    backoff = Math.min(backoff * 2, MAX_BACKOFF_NANOS);
+                    continue;
+                }
+            }
+            lock.lock();
+            try {
+                // clear an interrupt of shutdown that raced with take
+                Thread.interrupted();
+                carrier.run();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
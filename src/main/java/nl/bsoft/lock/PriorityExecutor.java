@@ -0,0 +1,334 @@
+package nl.bsoft.lock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Thread pool with a queue per latency class, so a few long background tasks cannot hold up short interactive
+ * ones.
+ * <p>
+ * Classes are numbered from 0 and each has a weight. Idle workers pick the next class with smooth weighted
+ * round robin, so under load class {@code i} gets {@code weight[i] / sum(weights)} of the dequeues. A class
+ * whose oldest task has waited longer than the aging threshold is promoted to the highest weight among the
+ * classes with work and wins ties against classes that are not promoted, which gets a backlog of low weight
+ * tasks moving without letting it take over the pool. A class starts without credit or debt each time its
+ * queue runs empty. Queue time is recorded per class in a {@link LatencyHistogram}.
+ * <p>
+ * Tasks submitted through the plain {@link ExecutorService} methods go to the last class.
+ */
+public class PriorityExecutor extends AbstractExecutorService {
+    private final Logger log = LoggerFactory.getLogger(PriorityExecutor.class);
+
+    private static final class Entry {
+        final Runnable task;
+        final long enqueued;
+
+        Entry(Runnable task, long enqueued) {
+            this.task = task;
+            this.enqueued = enqueued;
+        }
+    }
+
+    private final int[] weights;
+    private final long agingNanos;
+    private final List<ArrayDeque<Entry>> queues = new ArrayList<>();
+    private final int[] currentWeights;
+    private final LatencyHistogram[] queueTimes;
+    private final long[] agedCounts;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition terminated = lock.newCondition();
+    private final List<Thread> workers = new ArrayList<>();
+    private int queued = 0;
+    private int liveWorkers;
+    private boolean shutdown = false;
+    private volatile boolean stopped = false;
+
+    /**
+     * @param threads number of worker threads
+     * @param weights weight of each latency class, class 0 first
+     * @param aging   time after which the class of a waiting task is promoted to the highest weight, winning
+     *                ties
+     */
+    public PriorityExecutor(int threads, int[] weights, long aging, TimeUnit unit) {
+        this(threads, weights, aging, unit, Executors.defaultThreadFactory());
+    }
+
+    public PriorityExecutor(int threads, int[] weights, long aging, TimeUnit unit, ThreadFactory threadFactory) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be at least 1: " + threads);
+        }
+        if (weights.length == 0) {
+            throw new IllegalArgumentException("at least one latency class is required");
+        }
+        for (int weight : weights) {
+            if (weight < 1) {
+                throw new IllegalArgumentException("weights must be positive: " + weight);
+            }
+        }
+        this.weights = weights.clone();
+        this.agingNanos = unit.toNanos(aging);
+        this.currentWeights = new int[weights.length];
+        this.queueTimes = new LatencyHistogram[weights.length];
+        this.agedCounts = new long[weights.length];
+        for (int i = 0; i < weights.length; i++) {
+            queues.add(new ArrayDeque<>());
+            queueTimes[i] = new LatencyHistogram();
+        }
+
+        lock.lock();
+        try {
+            for (int i = 0; i < threads; i++) {
+                Thread worker = threadFactory.newThread(this::work);
+                workers.add(worker);
+                liveWorkers++;
+            }
+            for (Thread worker : workers) {
+                worker.start();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public <T> Future<T> submit(int latencyClass, Callable<T> task) {
+        RunnableFuture<T> future = newTaskFor(task);
+        execute(latencyClass, future);
+        return future;
+    }
+
+    public Future<?> submit(int latencyClass, Runnable task) {
+        RunnableFuture<Void> future = newTaskFor(task, null);
+        execute(latencyClass, future);
+        return future;
+    }
+
+    public void execute(int latencyClass, Runnable task) {
+        if (latencyClass < 0 || latencyClass >= weights.length) {
+            throw new IllegalArgumentException("latency class must be between 0 and " + (weights.length - 1));
+        }
+        if (task == null) {
+            throw new NullPointerException();
+        }
+        lock.lock();
+        try {
+            if (shutdown) {
+                throw new RejectedExecutionException("executor is shut down");
+            }
+            queues.get(latencyClass).addLast(new Entry(task, System.nanoTime()));
+            queued++;
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        execute(weights.length - 1, task);
+    }
+
+    /**
+     * Time tasks of {@code latencyClass} spent in the queue, in nanoseconds.
+     */
+    public LatencyHistogram getQueueTime(int latencyClass) {
+        return queueTimes[latencyClass];
+    }
+
+    /**
+     * Number of tasks of {@code latencyClass} that were taken while the class was promoted by aging.
+     */
+    public long getAgedCount(int latencyClass) {
+        lock.lock();
+        try {
+            return agedCounts[latencyClass];
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getQueued(int latencyClass) {
+        lock.lock();
+        try {
+            return queues.get(latencyClass).size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        lock.lock();
+        try {
+            shutdown = true;
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        List<Runnable> pending = new ArrayList<>();
+        lock.lock();
+        try {
+            shutdown = true;
+            stopped = true;
+            for (ArrayDeque<Entry> queue : queues) {
+                for (Entry entry : queue) {
+                    pending.add(entry.task);
+                }
+                queue.clear();
+            }
+            queued = 0;
+            for (Thread worker : workers) {
+                worker.interrupt();
+            }
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        return pending;
+    }
+
+    @Override
+    public boolean isShutdown() {
+        lock.lock();
+        try {
+            return shutdown;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean isTerminated() {
+        lock.lock();
+        try {
+            return shutdown && liveWorkers == 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long remaining = unit.toNanos(timeout);
+        lock.lock();
+        try {
+            while (!(shutdown && liveWorkers == 0)) {
+                if (remaining <= 0) {
+                    return false;
+                }
+                remaining = terminated.awaitNanos(remaining);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void work() {
+        try {
+            for (; ; ) {
+                Runnable task = take();
+                if (task == null) {
+                    return;
+                }
+                // clear an interrupt meant for the previous task, unless the pool is stopping
+                if (!stopped) {
+                    Thread.interrupted();
+                }
+                try {
+                    task.run();
+                } catch (RuntimeException | Error e) {
+                    log.error("Task failed: {}", e.getMessage(), e);
+                }
+            }
+        } finally {
+            lock.lock();
+            try {
+                liveWorkers--;
+                terminated.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * @return the next task, or null when the pool is shut down and the queues are empty
+     */
+    private Runnable take() {
+        lock.lock();
+        try {
+            while (queued == 0) {
+                if (shutdown) {
+                    return null;
+                }
+                try {
+                    notEmpty.await();
+                } catch (InterruptedException e) {
+                    // only shutdownNow interrupts an idle worker, loop around to see it
+                }
+            }
+            long now = System.nanoTime();
+            int selected = select(now);
+            ArrayDeque<Entry> queue = queues.get(selected);
+            Entry entry = queue.pollFirst();
+            queued--;
+            if (queue.isEmpty()) {
+                // no leftover credit or debt when the class comes back from idle
+                currentWeights[selected] = 0;
+            }
+            queueTimes[selected].record(Math.max(0L, now - entry.enqueued));
+            return entry.task;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Smooth weighted round robin over the classes that have work, with aged classes at the highest weight and
+     * ties going to an aged class.
+     */
+    private int select(long now) {
+        int top = 0;
+        for (int i = 0; i < weights.length; i++) {
+            if (!queues.get(i).isEmpty()) {
+                top = Math.max(top, weights[i]);
+            }
+        }
+        int selected = -1;
+        boolean promoted = false;
+        int total = 0;
+        for (int i = 0; i < weights.length; i++) {
+            Entry head = queues.get(i).peekFirst();
+            if (head == null) {
+                continue;
+            }
+            boolean aged = weights[i] < top && now - head.enqueued >= agingNanos;
+            int weight = aged ? top : weights[i];
+            currentWeights[i] += weight;
+            total += weight;
+            if (selected < 0 || currentWeights[i] > currentWeights[selected]
+                    || (currentWeights[i] == currentWeights[selected] && aged && !promoted)) {
+                selected = i;
+                promoted = aged;
+            }
+        }
+        currentWeights[selected] -= total;
+        if (promoted) {
+            agedCounts[selected]++;
+        }
+        return selected;
+    }
+}
@@ -0,0 +1,158 @@
+package nl.bsoft.lock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Token bucket rate limiter without locks.
+ * <p>
+ * The whole bucket is kept in one word: the theoretical arrival time (in {@link System#nanoTime()} units) at
+ * which the bucket is empty again. Taking permits moves that time forward by {@code permits * interval};
+ * a request fits when the new time is no more than {@code burst * interval} ahead of now. One CAS per
+ * permit check, no monitor, no sleeping thread for the async variant.
+ */
+public class RateLimiter {
+    private final Logger log = LoggerFactory.getLogger(RateLimiter.class);
+
+    private final long intervalNanos;   // time needed to refill one permit
+    private final long burst;           // bucket capacity in permits
+    private final long toleranceNanos;  // burst * intervalNanos
+
+    private final AtomicLong emptyAt;
+
+    public RateLimiter(double permitsPerSecond, long burst) {
+        if (permitsPerSecond <= 0.0) {
+            throw new IllegalArgumentException("permitsPerSecond must be positive: " + permitsPerSecond);
+        }
+        if (burst < 1) {
+            throw new IllegalArgumentException("burst must be at least 1: " + burst);
+        }
+        this.intervalNanos = Math.max(1L, (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond));
+        this.burst = burst;
+        this.toleranceNanos = burst * intervalNanos;
+        // start with a full bucket
+        this.emptyAt = new AtomicLong(System.nanoTime() - toleranceNanos);
+    }
+
+    public boolean tryAcquire() {
+        return tryAcquire(1);
+    }
+
+    /**
+     * Take {@code permits} if they are available right now.
+     *
+     * @return true when the permits were taken
+     */
+    public boolean tryAcquire(int permits) {
+        checkPermits(permits);
+        long cost = permits * intervalNanos;
+        for (; ; ) {
+            long now = System.nanoTime();
+            long current = emptyAt.get();
+            long next = Math.max(current, now - toleranceNanos) + cost;
+            if (next - now > 0) {
+                return false;
+            }
+            if (emptyAt.compareAndSet(current, next)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Take {@code permits}, waiting at most {@code timeout} for them to become available. The permits are
+     * reserved up front, so a waiting caller keeps its place in line.
+     *
+     * @return true when the permits were taken, false when they would not be available within the timeout
+     * @throws InterruptedException when interrupted while waiting, the reservation is kept
+     */
+    public boolean acquire(int permits, long timeout, TimeUnit unit) throws InterruptedException {
+        long waitNanos = reserve(permits, unit.toNanos(timeout));
+        if (waitNanos < 0) {
+            return false;
+        }
+        long deadline = System.nanoTime() + waitNanos;
+        while (waitNanos > 0) {
+            LockSupport.parkNanos(this, waitNanos);
+            if (Thread.interrupted()) {
+                throw new InterruptedException("interrupted while waiting for permits");
+            }
+            waitNanos = deadline - System.nanoTime();
+        }
+        return true;
+    }
+
+    /**
+     * Reserve {@code permits} and complete the returned future on {@code scheduler} once they are available.
+     * No thread is blocked in the meantime. When the scheduler rejects the completion the future fails and the
+     * permits are not taken.
+     */
+    public CompletableFuture<Void> acquireAsync(int permits, ScheduledExecutorService scheduler) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        long waitNanos = reserve(permits, Long.MAX_VALUE);
+        if (waitNanos <= 0) {
+            result.complete(null);
+        } else {
+            try {
+                scheduler.schedule(() -> result.complete(null), waitNanos, TimeUnit.NANOSECONDS);
+            } catch (RuntimeException e) {
+                log.error("Unable to schedule permit completion: {}", e.getMessage());
+                // nobody will use the permits, give the reservation back
+                emptyAt.addAndGet(-permits * intervalNanos);
+                result.completeExceptionally(e);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Number of permits that can be taken right now without waiting.
+     */
+    public long getAvailablePermits() {
+        long now = System.nanoTime();
+        long ahead = Math.max(emptyAt.get(), now - toleranceNanos) - (now - toleranceNanos);
+        return Math.max(0L, burst - (ahead + intervalNanos - 1) / intervalNanos);
+    }
+
+    public double getRate() {
+        return (double) TimeUnit.SECONDS.toNanos(1) / intervalNanos;
+    }
+
+    public long getBurst() {
+        return burst;
+    }
+
+    /**
+     * Reserve permits when they become available within {@code maxWaitNanos}.
+     *
+     * @return nanoseconds to wait before the permits may be used, or -1 when the wait would be too long
+     */
+    private long reserve(int permits, long maxWaitNanos) {
+        checkPermits(permits);
+        long cost = permits * intervalNanos;
+        for (; ; ) {
+            long now = System.nanoTime();
+            long current = emptyAt.get();
+            long next = Math.max(current, now - toleranceNanos) + cost;
+            long wait = Math.max(0L, next - now);
+            if (wait > maxWaitNanos) {
+                return -1;
+            }
+            if (emptyAt.compareAndSet(current, next)) {
+                return wait;
+            }
+        }
+    }
+
+    private void checkPermits(int permits) {
+        if (permits < 1 || permits > burst) {
+            throw new IllegalArgumentException("permits must be between 1 and " + burst + ": " + permits);
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package nl.bsoft.lock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Executor wrapper that runs concurrent submissions with the same key only once.
+ * <p>
+ * The first submission of a key starts the task on the executor; submissions of that key that arrive while it
+ * runs get a {@link Future} of the same computation, including its failure. The key is released as soon as the
+ * computation completes, so the next submission starts a fresh one. Cancelling a returned future only detaches
+ * that caller; the computation itself is cancelled when every caller has cancelled.
+ * <p>
+ * All tasks submitted with the same key must produce the same type of result.
+ */
+public class SingleFlight<K> {
+    private final Logger log = LoggerFactory.getLogger(SingleFlight.class);
+
+    private final ExecutorService executor;
+    private final ConcurrentHashMap<K, Call<?>> calls = new ConcurrentHashMap<>();
+
+    private final LongAdder executed = new LongAdder();
+    private final LongAdder shared = new LongAdder();
+
+    public SingleFlight(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Run {@code task} for {@code key}, or join the computation of {@code key} that is already running.
+     *
+     * @throws RejectedExecutionException when the executor does not accept the task
+     */
+    @SuppressWarnings("unchecked")
+    public <T> Future<T> submit(K key, Callable<T> task) {
+        for (; ; ) {
+            Call<T> call = (Call<T>) calls.get(key);
+            if (call != null) {
+                if (call.join()) {
+                    shared.increment();
+                    return new Waiter<>(call);
+                }
+                // every caller left, the call is being cancelled
+                calls.remove(key, call);
+                continue;
+            }
+            call = new Call<>(key, task);
+            if (calls.putIfAbsent(key, call) != null) {
+                continue;
+            }
+            try {
+                executor.execute(call);
+            } catch (RejectedExecutionException e) {
+                calls.remove(key, call);
+                throw e;
+            }
+            executed.increment();
+            return new Waiter<>(call);
+        }
+    }
+
+    /**
+     * Number of keys with a computation in progress.
+     */
+    public int getInFlight() {
+        return calls.size();
+    }
+
+    /**
+     * Number of computations started.
+     */
+    public long getExecuted() {
+        return executed.sum();
+    }
+
+    /**
+     * Number of submissions that joined a computation that was already running.
+     */
+    public long getShared() {
+        return shared.sum();
+    }
+
+    private class Call<T> extends FutureTask<T> {
+        private final K key;
+        private final AtomicInteger waiters = new AtomicInteger(1);
+
+        Call(K key, Callable<T> task) {
+            super(task);
+            this.key = key;
+        }
+
+        /**
+         * @return false when all waiters already left and no one may join anymore
+         */
+        boolean join() {
+            for (; ; ) {
+                int current = waiters.get();
+                if (current == 0) {
+                    return false;
+                }
+                if (waiters.compareAndSet(current, current + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        void leave(boolean mayInterruptIfRunning) {
+            if (waiters.decrementAndGet() == 0) {
+                log.debug("All callers of key {} cancelled", key);
+                cancel(mayInterruptIfRunning);
+            }
+        }
+
+        // release the key before the outcome is published, so a caller that got the result finds it released
+
+        @Override
+        protected void set(T value) {
+            calls.remove(key, this);
+            super.set(value);
+        }
+
+        @Override
+        protected void setException(Throwable t) {
+            calls.remove(key, this);
+            super.setException(t);
+        }
+
+        @Override
+        protected void done() {
+            // needed after cancel, after set or setException the key is released already
+            calls.remove(key, this);
+        }
+    }
+
+    /**
+     * View of a shared call for one caller.
+     */
+    private static class Waiter<T> implements Future<T> {
+        private final SingleFlight<?>.Call<T> call;
+        private final AtomicBoolean cancelled = new AtomicBoolean();
+
+        Waiter(SingleFlight<?>.Call<T> call) {
+            this.call = call;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            if (call.isDone() || !cancelled.compareAndSet(false, true)) {
+                return false;
+            }
+            call.leave(mayInterruptIfRunning);
+            return true;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return cancelled.get() || call.isCancelled();
+        }
+
+        @Override
+        public boolean isDone() {
+            return cancelled.get() || call.isDone();
+        }
+
+        @Override
+        public T get() throws InterruptedException, ExecutionException {
+            if (cancelled.get()) {
+                throw new CancellationException();
+            }
+            return call.get();
+        }
+
+        @Override
+        public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            if (cancelled.get()) {
+                throw new CancellationException();
+            }
+            return call.get(timeout, unit);
+        }
+    }
+}
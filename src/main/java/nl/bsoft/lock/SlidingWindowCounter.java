@@ -0,0 +1,143 @@
+package nl.bsoft.lock;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Counts events in a sliding time window, for instance "events in the last 60 seconds".
+ * <p>
+ * The window is a ring of buckets of {@code resolution} each. A bucket remembers which time slot it counts;
+ * when an increment finds a bucket of an older slot it swaps in a fresh bucket with a CAS, so stale buckets
+ * are rotated lazily without a lock or a timer thread. Each bucket counts with a {@link LongAdder}, which
+ * stripes the count over cells when writers contend.
+ * <p>
+ * Queries include the current, partially filled bucket, so the covered span is between
+ * {@code window - resolution} and {@code window}.
+ */
+public class SlidingWindowCounter {
+
+    private static final class Bucket {
+        final long slot;
+        final LongAdder count = new LongAdder();
+
+        Bucket(long slot) {
+            this.slot = slot;
+        }
+    }
+
+    private final long resolutionNanos;
+    private final int buckets;
+    private final AtomicReferenceArray<Bucket> ring;
+    private final LongSupplier clock;
+
+    /**
+     * @param window     span of time counted, at most {@code 2^16} times the resolution
+     * @param resolution width of one bucket
+     */
+    public SlidingWindowCounter(long window, long resolution, TimeUnit unit) {
+        this(window, resolution, unit, System::nanoTime);
+    }
+
+    SlidingWindowCounter(long window, long resolution, TimeUnit unit, LongSupplier clock) {
+        if (resolution <= 0 || window < resolution) {
+            throw new IllegalArgumentException("expected 0 < resolution <= window");
+        }
+        long count = (unit.toNanos(window) + unit.toNanos(resolution) - 1) / unit.toNanos(resolution);
+        if (count > 1 << 16) {
+            throw new IllegalArgumentException("window holds more than 65536 buckets: " + count);
+        }
+        this.resolutionNanos = unit.toNanos(resolution);
+        this.buckets = (int) count;
+        this.ring = new AtomicReferenceArray<>(buckets);
+        this.clock = clock;
+        for (int i = 0; i < buckets; i++) {
+            ring.set(i, new Bucket(Long.MIN_VALUE));
+        }
+    }
+
+    public void increment() {
+        add(1L);
+    }
+
+    public void add(long delta) {
+        long slot = slot();
+        int index = (int) Math.floorMod(slot, (long) buckets);
+        Bucket bucket = ring.get(index);
+        while (bucket.slot != slot) {
+            if (bucket.slot > slot) {
+                // this thread was preempted for longer than the bucket lives, the event is too old to count
+                return;
+            }
+            Bucket fresh = new Bucket(slot);
+            if (ring.compareAndSet(index, bucket, fresh)) {
+                bucket = fresh;
+            } else {
+                bucket = ring.get(index);
+            }
+        }
+        bucket.count.add(delta);
+    }
+
+    /**
+     * Number of events in the whole window.
+     */
+    public long sum() {
+        return sum(buckets);
+    }
+
+    /**
+     * Number of events in the last {@code duration}, rounded up to whole buckets and capped at the window.
+     */
+    public long sum(long duration, TimeUnit unit) {
+        return sum(bucketsFor(duration, unit));
+    }
+
+    /**
+     * Events per second over the whole window.
+     */
+    public double rate() {
+        return rate(buckets);
+    }
+
+    /**
+     * Events per second over the last {@code duration}, rounded up to whole buckets and capped at the window.
+     */
+    public double rate(long duration, TimeUnit unit) {
+        return rate(bucketsFor(duration, unit));
+    }
+
+    public long getWindow(TimeUnit unit) {
+        return unit.convert(buckets * resolutionNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public long getResolution(TimeUnit unit) {
+        return unit.convert(resolutionNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private long sum(int count) {
+        long current = slot();
+        long sum = 0;
+        for (int i = 0; i < buckets; i++) {
+            Bucket bucket = ring.get(i);
+            if (bucket.slot <= current && bucket.slot > current - count) {
+                sum += bucket.count.sum();
+            }
+        }
+        return sum;
+    }
+
+    private double rate(int count) {
+        return sum(count) * (double) TimeUnit.SECONDS.toNanos(1) / (count * resolutionNanos);
+    }
+
+    private int bucketsFor(long duration, TimeUnit unit) {
+        long count = (unit.toNanos(duration) + resolutionNanos - 1) / resolutionNanos;
+        return (int) Math.max(1L, Math.min(buckets, count));
+    }
+
+    private long slot() {
+        return Math.floorDiv(clock.getAsLong(), resolutionNanos);
+    }
+}
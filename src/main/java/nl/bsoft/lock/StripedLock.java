@@ -0,0 +1,247 @@
+package nl.bsoft.lock;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Mutual exclusion per key in bounded memory.
+ * <p>
+ * Keys are mapped by hash onto a fixed, power of two number of stripes, each with its own
+ * {@link ReentrantReadWriteLock}. Updates to keys on different stripes run in parallel; keys that share a
+ * stripe are serialized, which is safe but costs some concurrency, so use a few times more stripes than
+ * threads. Stripes are padded so the statistics of neighbouring stripes do not share a cache line.
+ * <p>
+ * Several keys are locked with {@link #lockAll(Iterable)}, which takes the stripes in ascending order so two
+ * threads locking overlapping key sets cannot deadlock.
+ */
+public class StripedLock<K> {
+
+    /**
+     * Locks held by {@link #lockAll(Iterable)}, released on close.
+     */
+    public interface Held extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    private final Stripe[] stripes;
+    private final int mask;
+
+    /**
+     * @param stripes minimum number of stripes, rounded up to a power of two
+     */
+    public StripedLock(int stripes) {
+        if (stripes < 1 || stripes > 1 << 24) {
+            throw new IllegalArgumentException("stripes must be between 1 and 2^24: " + stripes);
+        }
+        int size = stripes == 1 ? 1 : Integer.highestOneBit(stripes - 1) << 1;
+        this.stripes = new Stripe[size];
+        this.mask = size - 1;
+        for (int i = 0; i < size; i++) {
+            this.stripes[i] = new Stripe();
+        }
+    }
+
+    /**
+     * Exclusive lock of the stripe of {@code key}, same as {@link #writeLock(Object)}.
+     */
+    public Lock lock(K key) {
+        return writeLock(key);
+    }
+
+    public Lock writeLock(K key) {
+        return stripes[indexFor(key)].writeLock;
+    }
+
+    public Lock readLock(K key) {
+        return stripes[indexFor(key)].readLock;
+    }
+
+    /**
+     * Lock the stripes of all {@code keys} exclusively, in stripe order.
+     */
+    public Held lockAll(Iterable<? extends K> keys) {
+        return acquireAll(keys, true);
+    }
+
+    /**
+     * Lock the stripes of all {@code keys} shared, in stripe order.
+     */
+    public Held readLockAll(Iterable<? extends K> keys) {
+        return acquireAll(keys, false);
+    }
+
+    public int getStripeCount() {
+        return stripes.length;
+    }
+
+    public int indexFor(K key) {
+        int hash = key.hashCode();
+        hash ^= (hash >>> 16);
+        hash *= 0x85ebca6b;
+        hash ^= (hash >>> 13);
+        return hash & mask;
+    }
+
+    /**
+     * Number of times the stripe was locked, shared or exclusive.
+     */
+    public long getAcquisitions(int stripe) {
+        return stripes[stripe].acquisitions;
+    }
+
+    /**
+     * Number of acquisitions of the stripe that had to wait for another thread.
+     */
+    public long getContended(int stripe) {
+        return stripes[stripe].contended;
+    }
+
+    /**
+     * Total time spent waiting for the stripe.
+     */
+    public long getWaitTime(int stripe, TimeUnit unit) {
+        return unit.convert(stripes[stripe].waitNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private Held acquireAll(Iterable<? extends K> keys, boolean exclusive) {
+        int count = 0;
+        int[] indexes = new int[8];
+        for (K key : keys) {
+            if (count == indexes.length) {
+                indexes = Arrays.copyOf(indexes, count * 2);
+            }
+            indexes[count++] = indexFor(key);
+        }
+        Arrays.sort(indexes, 0, count);
+
+        Lock[] held = new Lock[count];
+        int locked = 0;
+        try {
+            for (int i = 0; i < count; i++) {
+                if (i > 0 && indexes[i] == indexes[i - 1]) {
+                    continue;
+                }
+                Stripe stripe = stripes[indexes[i]];
+                Lock lock = exclusive ? stripe.writeLock : stripe.readLock;
+                lock.lock();
+                held[locked++] = lock;
+            }
+        } catch (RuntimeException | Error e) {
+            release(held, locked);
+            throw e;
+        }
+        int total = locked;
+        return () -> release(held, total);
+    }
+
+    private static void release(Lock[] held, int count) {
+        for (int i = count - 1; i >= 0; i--) {
+            held[i].unlock();
+        }
+    }
+
+    // padding keeps the counters of a stripe on their own cache line
+
+    @SuppressWarnings("unused")
+    private static class PadBefore {
+        long p01, p02, p03, p04, p05, p06, p07;
+    }
+
+    private static class StripeFields extends PadBefore {
+        final ReentrantReadWriteLock rwLock = new ReentrantReadWriteLock();
+        final Lock readLock = new CountingLock(this, rwLock.readLock());
+        final Lock writeLock = new CountingLock(this, rwLock.writeLock());
+        volatile long acquisitions;
+        volatile long contended;
+        volatile long waitNanos;
+    }
+
+    @SuppressWarnings("unused")
+    private static final class Stripe extends StripeFields {
+        long p11, p12, p13, p14, p15, p16, p17;
+    }
+
+    private static final AtomicLongFieldUpdater<StripeFields> ACQUISITIONS =
+            AtomicLongFieldUpdater.newUpdater(StripeFields.class, "acquisitions");
+    private static final AtomicLongFieldUpdater<StripeFields> CONTENDED =
+            AtomicLongFieldUpdater.newUpdater(StripeFields.class, "contended");
+    private static final AtomicLongFieldUpdater<StripeFields> WAIT_NANOS =
+            AtomicLongFieldUpdater.newUpdater(StripeFields.class, "waitNanos");
+
+    /**
+     * Lock that counts acquisitions and contention on its stripe.
+     */
+    private static final class CountingLock implements Lock {
+        private final StripeFields stripe;
+        private final Lock delegate;
+
+        CountingLock(StripeFields stripe, Lock delegate) {
+            this.stripe = stripe;
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void lock() {
+            if (!delegate.tryLock()) {
+                long start = System.nanoTime();
+                delegate.lock();
+                contended(start);
+            }
+            ACQUISITIONS.incrementAndGet(stripe);
+        }
+
+        @Override
+        public void lockInterruptibly() throws InterruptedException {
+            if (!delegate.tryLock()) {
+                long start = System.nanoTime();
+                delegate.lockInterruptibly();
+                contended(start);
+            }
+            ACQUISITIONS.incrementAndGet(stripe);
+        }
+
+        @Override
+        public boolean tryLock() {
+            if (delegate.tryLock()) {
+                ACQUISITIONS.incrementAndGet(stripe);
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+            if (delegate.tryLock()) {
+                ACQUISITIONS.incrementAndGet(stripe);
+                return true;
+            }
+            long start = System.nanoTime();
+            if (delegate.tryLock(time, unit)) {
+                contended(start);
+                ACQUISITIONS.incrementAndGet(stripe);
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public void unlock() {
+            delegate.unlock();
+        }
+
+        @Override
+        public Condition newCondition() {
+            return delegate.newCondition();
+        }
+
+        private void contended(long start) {
+            CONTENDED.incrementAndGet(stripe);
+            WAIT_NANOS.addAndGet(stripe, System.nanoTime() - start);
+        }
+    }
+}
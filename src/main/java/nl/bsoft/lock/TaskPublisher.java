@@ -0,0 +1,256 @@
+package nl.bsoft.lock;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reactive Streams publisher of the results of a sequence of tasks.
+ * <p>
+ * Unlike {@link ExecutorService#invokeAll(java.util.Collection)}, which runs every task and keeps all results,
+ * tasks are only submitted while the subscriber has outstanding demand, and never more than {@code prefetch}
+ * at a time. A slow subscriber therefore paces the producers and memory stays bounded. In ordered mode results
+ * are emitted in task order, otherwise as soon as they complete. Cancelling the subscription cancels the
+ * running tasks and interrupts their workers; a failing task cancels the others and ends the stream with
+ * {@code onError}.
+ * <p>
+ * Every subscriber gets its own run of the tasks, from a fresh iterator.
+ */
+public class TaskPublisher<T> implements Publisher<T> {
+    private final Logger log = LoggerFactory.getLogger(TaskPublisher.class);
+
+    private final Iterable<? extends Callable<? extends T>> tasks;
+    private final ExecutorService executor;
+    private final int prefetch;
+    private final boolean ordered;
+
+    /**
+     * @param tasks    tasks to run, iterated lazily as demand comes in
+     * @param executor executor that runs the tasks
+     * @param prefetch maximum number of tasks submitted but not emitted yet
+     * @param ordered  emit results in task order instead of completion order
+     */
+    public TaskPublisher(Iterable<? extends Callable<? extends T>> tasks, ExecutorService executor, int prefetch,
+                         boolean ordered) {
+        if (prefetch < 1) {
+            throw new IllegalArgumentException("prefetch must be at least 1: " + prefetch);
+        }
+        this.tasks = tasks;
+        this.executor = executor;
+        this.prefetch = prefetch;
+        this.ordered = ordered;
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super T> subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("subscriber must not be null");
+        }
+        Iterator<? extends Callable<? extends T>> iterator;
+        try {
+            iterator = tasks.iterator();
+        } catch (RuntimeException e) {
+            subscriber.onSubscribe(new Subscription() {
+                public void request(long n) {
+                }
+
+                public void cancel() {
+                }
+            });
+            subscriber.onError(e);
+            return;
+        }
+        TaskSubscription subscription = new TaskSubscription(subscriber, iterator);
+        subscriber.onSubscribe(subscription);
+        subscription.drain();
+    }
+
+    private final class TaskSubscription implements Subscription {
+        private final Subscriber<? super T> subscriber;
+        private final AtomicLong requested = new AtomicLong();
+        private final AtomicInteger wip = new AtomicInteger();
+        private final ConcurrentLinkedQueue<Slot> completed = new ConcurrentLinkedQueue<>();
+        private volatile boolean cancelled = false;
+        private volatile Throwable badRequest;
+
+        // only touched in drain, which runs in one thread at a time
+        private final Iterator<? extends Callable<? extends T>> iterator;
+        private final ArrayDeque<Slot> pending = new ArrayDeque<>();
+        private boolean terminated = false;
+
+        TaskSubscription(Subscriber<? super T> subscriber, Iterator<? extends Callable<? extends T>> iterator) {
+            this.subscriber = subscriber;
+            this.iterator = iterator;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                badRequest = new IllegalArgumentException("request must be positive (rule 3.9): " + n);
+            } else {
+                for (; ; ) {
+                    long current = requested.get();
+                    long next = current + n < 0 ? Long.MAX_VALUE : current + n;
+                    if (requested.compareAndSet(current, next)) {
+                        break;
+                    }
+                }
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            drain();
+        }
+
+        /**
+         * Emit what can be emitted and submit what demand allows. Called from any thread, the work is done by
+         * one of them at a time.
+         */
+        void drain() {
+            if (wip.getAndIncrement() != 0) {
+                return;
+            }
+            int missed = 1;
+            for (; ; ) {
+                if (!terminated) {
+                    if (cancelled) {
+                        terminated = true;
+                        cancelPending();
+                    } else if (badRequest != null) {
+                        fail(badRequest);
+                    } else {
+                        emit();
+                        submit();
+                        if (!terminated && pending.isEmpty()) {
+                            // hasNext fails the stream when the iterator throws, complete only when it did not
+                            boolean more = hasNext();
+                            if (!terminated && !more) {
+                                terminated = true;
+                                subscriber.onComplete();
+                            }
+                        }
+                    }
+                }
+                missed = wip.addAndGet(-missed);
+                if (missed == 0) {
+                    return;
+                }
+            }
+        }
+
+        private void emit() {
+            long demand = requested.get();
+            long emitted = 0;
+            while (emitted != demand && !terminated && !cancelled) {
+                Slot slot = nextCompleted();
+                if (slot == null) {
+                    break;
+                }
+                T value;
+                try {
+                    value = slot.get();
+                } catch (ExecutionException e) {
+                    fail(e.getCause());
+                    return;
+                } catch (CancellationException | InterruptedException e) {
+                    fail(e);
+                    return;
+                }
+                if (value == null) {
+                    fail(new NullPointerException("task returned null (rule 2.13)"));
+                    return;
+                }
+                subscriber.onNext(value);
+                emitted++;
+            }
+            if (emitted != 0 && demand != Long.MAX_VALUE) {
+                requested.addAndGet(-emitted);
+            }
+        }
+
+        private Slot nextCompleted() {
+            if (ordered) {
+                Slot head = pending.peekFirst();
+                return head != null && head.isDone() ? pending.pollFirst() : null;
+            }
+            Slot slot = completed.poll();
+            if (slot != null) {
+                pending.remove(slot);
+            }
+            return slot;
+        }
+
+        private void submit() {
+            long demand = requested.get();
+            while (!terminated && !cancelled && pending.size() < prefetch && pending.size() < demand && hasNext()) {
+                Slot slot;
+                try {
+                    slot = new Slot(iterator.next());
+                } catch (RuntimeException e) {
+                    fail(e);
+                    return;
+                }
+                pending.addLast(slot);
+                try {
+                    executor.execute(slot);
+                } catch (RejectedExecutionException e) {
+                    fail(e);
+                    return;
+                }
+            }
+        }
+
+        private boolean hasNext() {
+            try {
+                return iterator.hasNext();
+            } catch (RuntimeException e) {
+                fail(e);
+                return false;
+            }
+        }
+
+        private void fail(Throwable error) {
+            if (terminated) {
+                return;
+            }
+            terminated = true;
+            cancelPending();
+            subscriber.onError(error);
+        }
+
+        private void cancelPending() {
+            Slot slot;
+            while ((slot = pending.pollFirst()) != null) {
+                slot.cancel(true);
+            }
+            completed.clear();
+            log.debug("Task stream stopped, pending tasks cancelled");
+        }
+
+        private final class Slot extends FutureTask<T> {
+            @SuppressWarnings("unchecked")
+            Slot(Callable<? extends T> task) {
+                super((Callable<T>) task);
+            }
+
+            @Override
+            protected void done() {
+                if (!ordered) {
+                    completed.offer(this);
+                }
+                drain();
+            }
+        }
+    }
+}
@@ -0,0 +1,391 @@
+package nl.bsoft.lock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.LockInfo;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.lang.ref.WeakReference;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sampling profiler for the worker threads of registered pools.
+ * <p>
+ * Every interval a daemon thread takes one {@link ThreadMXBean#getThreadInfo(long[], int)} snapshot of the
+ * registered threads, with a shallow stack, and classifies each thread as running, blocked on a monitor, parked
+ * on a {@code java.util.concurrent} lock, waiting in {@code Object.wait} or sleeping. Samples are aggregated per
+ * pool into time in state, per lock object into contention counts with their owners, and per application frame
+ * into the places where threads block. Aggregates are kept in a ring of windows, so {@link #report()} covers
+ * recent history only and memory stays bounded.
+ * <p>
+ * Threads are registered by creating them with {@link #threadFactory(String)}, or with
+ * {@link #register(String, Thread)}. Time in state is estimated as samples times interval.
+ */
+public class ThreadSampler implements AutoCloseable {
+    private final Logger log = LoggerFactory.getLogger(ThreadSampler.class);
+
+    private static final int STACK_DEPTH = 16;
+    private static final int TOP = 10;
+
+    public enum State {
+        /**
+         * Runnable, on or ready for a CPU.
+         */
+        RUNNING,
+        /**
+         * Waiting to enter a {@code synchronized} block or method.
+         */
+        BLOCKED,
+        /**
+         * Parked in {@code LockSupport}, by a {@code java.util.concurrent} lock, condition or queue.
+         */
+        PARKED,
+        /**
+         * In {@code Object.wait} or {@code Thread.join}.
+         */
+        WAITING,
+        /**
+         * In {@code Thread.sleep}.
+         */
+        SLEEPING
+    }
+
+    private static final class Registration {
+        final String pool;
+        final WeakReference<Thread> thread;
+
+        Registration(String pool, Thread thread) {
+            this.pool = pool;
+            this.thread = new WeakReference<>(thread);
+        }
+
+        /**
+         * The JVM reports no thread info for a thread that has not started yet either.
+         */
+        boolean isTerminated() {
+            Thread t = thread.get();
+            return t == null || t.getState() == Thread.State.TERMINATED;
+        }
+    }
+
+    private static final class LockStat {
+        long samples;
+        final Map<String, Long> owners = new HashMap<>();
+    }
+
+    private static final class Window {
+        long samples;
+        final Map<String, long[]> states = new HashMap<>();
+        final Map<String, LockStat> locks = new HashMap<>();
+        final Map<String, Long> frames = new HashMap<>();
+
+        void clear() {
+            samples = 0;
+            states.clear();
+            locks.clear();
+            frames.clear();
+        }
+    }
+
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private final ConcurrentHashMap<Long, Registration> pools = new ConcurrentHashMap<>();
+    private final long intervalNanos;
+    private final int samplesPerWindow;
+
+    // guarded by this
+    private final Window[] windows;
+    private int current = 0;
+    private long samplingNanos;
+    private long passes;
+
+    private ScheduledExecutorService timer;
+
+    /**
+     * @param interval         time between samples
+     * @param windows          number of windows in the report
+     * @param samplesPerWindow number of samples per window
+     */
+    public ThreadSampler(long interval, TimeUnit unit, int windows, int samplesPerWindow) {
+        if (interval <= 0 || windows < 1 || samplesPerWindow < 1) {
+            throw new IllegalArgumentException("interval, windows and samplesPerWindow must be positive");
+        }
+        this.intervalNanos = unit.toNanos(interval);
+        this.samplesPerWindow = samplesPerWindow;
+        this.windows = new Window[windows];
+        for (int i = 0; i < windows; i++) {
+            this.windows[i] = new Window();
+        }
+    }
+
+    /**
+     * Factory for the threads of pool {@code pool}, each thread it creates is sampled.
+     */
+    public ThreadFactory threadFactory(String pool) {
+        AtomicInteger number = new AtomicInteger();
+        return task -> {
+            Thread thread = new Thread(task, pool + "-" + number.incrementAndGet());
+            register(pool, thread);
+            return thread;
+        };
+    }
+
+    /**
+     * Sample {@code thread} as part of {@code pool}. Threads are dropped once they terminate.
+     */
+    public void register(String pool, Thread thread) {
+        pools.put(thread.getId(), new Registration(pool, thread));
+    }
+
+    /**
+     * Start sampling in a daemon thread.
+     */
+    public synchronized void start() {
+        if (timer != null) {
+            return;
+        }
+        timer = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "thread-sampler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.scheduleAtFixedRate(this::sample, intervalNanos, intervalNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Stop sampling, the collected samples remain available.
+     */
+    @Override
+    public synchronized void close() {
+        if (timer != null) {
+            timer.shutdownNow();
+            timer = null;
+        }
+    }
+
+    /**
+     * Estimated time the threads of {@code pool} spent in {@code state}, over the windows in the ring.
+     */
+    public synchronized long getTimeInState(String pool, State state, TimeUnit unit) {
+        long samples = 0;
+        for (Window window : windows) {
+            long[] counts = window.states.get(pool);
+            if (counts != null) {
+                samples += counts[state.ordinal()];
+            }
+        }
+        return unit.convert(samples * intervalNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Lock objects by number of samples in which a thread was blocked or parked on them, most contended first.
+     */
+    public synchronized List<String> getContendedLocks() {
+        Map<String, LockStat> locks = mergeLocks();
+        List<String> result = new ArrayList<>(locks.keySet());
+        result.sort((a, b) -> Long.compare(locks.get(b).samples, locks.get(a).samples));
+        return result;
+    }
+
+    /**
+     * Application frames by number of samples in which a thread was not running there, most frequent first.
+     */
+    public synchronized List<String> getBlockingFrames() {
+        Map<String, Long> frames = mergeFrames();
+        List<String> result = new ArrayList<>(frames.keySet());
+        result.sort((a, b) -> Long.compare(frames.get(b), frames.get(a)));
+        return result;
+    }
+
+    /**
+     * Text report of time in state per pool, the most contended locks with their owners and the top blocking
+     * frames.
+     */
+    public synchronized String report() {
+        long samples = 0;
+        SortedMap<String, long[]> states = new TreeMap<>();
+        for (Window window : windows) {
+            samples += window.samples;
+            for (Map.Entry<String, long[]> entry : window.states.entrySet()) {
+                long[] total = states.computeIfAbsent(entry.getKey(), pool -> new long[State.values().length]);
+                for (int i = 0; i < total.length; i++) {
+                    total[i] += entry.getValue()[i];
+                }
+            }
+        }
+        long intervalMillis = TimeUnit.NANOSECONDS.toMillis(intervalNanos);
+        StringBuilder report = new StringBuilder();
+        report.append(String.format(Locale.ROOT, "Thread samples: %d at %d ms interval, mean sampling cost %d us%n",
+                samples, intervalMillis, passes == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(samplingNanos / passes)));
+
+        for (Map.Entry<String, long[]> entry : states.entrySet()) {
+            long[] counts = entry.getValue();
+            long total = 0;
+            for (long count : counts) {
+                total += count;
+            }
+            report.append(String.format(Locale.ROOT, "Pool %s%n", entry.getKey()));
+            for (State state : State.values()) {
+                long count = counts[state.ordinal()];
+                report.append(String.format(Locale.ROOT, "  %-8s %8d ms %5.1f%%%n", state,
+                        TimeUnit.NANOSECONDS.toMillis(count * intervalNanos), total == 0 ? 0.0 : 100.0 * count / total));
+            }
+        }
+
+        report.append(String.format(Locale.ROOT, "Most contended locks%n"));
+        Map<String, LockStat> locks = mergeLocks();
+        int shown = 0;
+        for (String lock : getContendedLocks()) {
+            if (shown++ == TOP) {
+                break;
+            }
+            LockStat stat = locks.get(lock);
+            List<Map.Entry<String, Long>> owners = new ArrayList<>(stat.owners.entrySet());
+            owners.sort((a, b) -> Long.compare(b.getValue(), a.getValue()));
+            StringBuilder held = new StringBuilder();
+            for (Map.Entry<String, Long> owner : owners.subList(0, Math.min(3, owners.size()))) {
+                held.append(held.length() == 0 ? "" : ", ").append(owner.getKey()).append(" (")
+                        .append(owner.getValue()).append(')');
+            }
+            report.append(String.format(Locale.ROOT, "  %8d  %s%s%n", stat.samples, lock,
+                    held.length() == 0 ? "" : ", held by " + held));
+        }
+
+        report.append(String.format(Locale.ROOT, "Top blocking frames%n"));
+        Map<String, Long> frames = mergeFrames();
+        shown = 0;
+        for (String frame : getBlockingFrames()) {
+            if (shown++ == TOP) {
+                break;
+            }
+            report.append(String.format(Locale.ROOT, "  %8d  %s%n", frames.get(frame), frame));
+        }
+        return report.toString();
+    }
+
+    /**
+     * Take one sample of all registered threads.
+     */
+    void sample() {
+        long start = System.nanoTime();
+        Long[] ids = pools.keySet().toArray(new Long[0]);
+        long[] threadIds = new long[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            threadIds[i] = ids[i];
+        }
+        ThreadInfo[] infos;
+        try {
+            infos = threads.getThreadInfo(threadIds, STACK_DEPTH);
+        } catch (RuntimeException e) {
+            log.error("Sampling threads failed: {}", e.getMessage());
+            return;
+        }
+
+        synchronized (this) {
+            Window window = windows[current];
+            for (int i = 0; i < infos.length; i++) {
+                ThreadInfo info = infos[i];
+                Registration registration = pools.get(threadIds[i]);
+                if (info == null) {
+                    // not started yet or terminated
+                    if (registration != null && registration.isTerminated()) {
+                        pools.remove(threadIds[i], registration);
+                    }
+                    continue;
+                }
+                State state = classify(info);
+                if (registration == null || state == null) {
+                    continue;
+                }
+                String pool = registration.pool;
+                window.states.computeIfAbsent(pool, p -> new long[State.values().length])[state.ordinal()]++;
+                if (state == State.RUNNING) {
+                    continue;
+                }
+                LockInfo lock = info.getLockInfo();
+                // a condition is waited on for a signal, idle workers wait for work that way
+                if (lock != null && (state == State.BLOCKED || state == State.PARKED)
+                        && !lock.getClassName().endsWith("$ConditionObject")) {
+                    LockStat stat = window.locks.computeIfAbsent(info.getLockName(), l -> new LockStat());
+                    stat.samples++;
+                    if (info.getLockOwnerName() != null) {
+                        stat.owners.merge(info.getLockOwnerName(), 1L, Long::sum);
+                    }
+                }
+                String frame = applicationFrame(info.getStackTrace());
+                if (frame != null) {
+                    window.frames.merge(frame, 1L, Long::sum);
+                }
+            }
+            if (++window.samples == samplesPerWindow) {
+                current = (current + 1) % windows.length;
+                windows[current].clear();
+            }
+            samplingNanos += System.nanoTime() - start;
+            passes++;
+        }
+    }
+
+    static State classify(ThreadInfo info) {
+        switch (info.getThreadState()) {
+            case RUNNABLE:
+                return State.RUNNING;
+            case BLOCKED:
+                return State.BLOCKED;
+            case WAITING:
+            case TIMED_WAITING:
+                StackTraceElement[] stack = info.getStackTrace();
+                if (stack.length > 0) {
+                    StackTraceElement top = stack[0];
+                    if (top.getClassName().endsWith(".Unsafe") && top.getMethodName().equals("park")) {
+                        return State.PARKED;
+                    }
+                    if (top.getClassName().equals("java.lang.Thread") && top.getMethodName().startsWith("sleep")) {
+                        return State.SLEEPING;
+                    }
+                }
+                return State.WAITING;
+            default:
+                // new or terminated
+                return null;
+        }
+    }
+
+    /**
+     * The first frame outside the JDK, where the application code waits, or null for JDK only stacks such as
+     * an idle pool worker.
+     */
+    private static String applicationFrame(StackTraceElement[] stack) {
+        for (StackTraceElement frame : stack) {
+            String name = frame.getClassName();
+            if (!name.startsWith("java.") && !name.startsWith("javax.") && !name.startsWith("sun.")
+                    && !name.startsWith("jdk.") && !name.startsWith("com.sun.")) {
+                return frame.toString();
+            }
+        }
+        return null;
+    }
+
+    private Map<String, LockStat> mergeLocks() {
+        Map<String, LockStat> merged = new HashMap<>();
+        for (Window window : windows) {
+            for (Map.Entry<String, LockStat> entry : window.locks.entrySet()) {
+                LockStat total = merged.computeIfAbsent(entry.getKey(), l -> new LockStat());
+                total.samples += entry.getValue().samples;
+                entry.getValue().owners.forEach((owner, count) -> total.owners.merge(owner, count, Long::sum));
+            }
+        }
+        return merged;
+    }
+
+    private Map<String, Long> mergeFrames() {
+        Map<String, Long> merged = new HashMap<>();
+        for (Window window : windows) {
+            window.frames.forEach((frame, count) -> merged.merge(frame, count, Long::sum));
+        }
+        return merged;
+    }
+}
@@ -0,0 +1,81 @@
+package nl.bsoft.lock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Delay based limit after TCP Vegas. The lowest latency seen is taken as the no-load latency, from which the
+ * number of queued calls is estimated as {@code limit * (1 - minRtt / rtt)}. With a small queue the limit
+ * grows, with a large queue it shrinks, so latency stays close to the no-load latency under overload.
+ * A drop cuts the limit in half.
+ */
+public class VegasLimit implements LimitAlgorithm {
+    private final Logger log = LoggerFactory.getLogger(VegasLimit.class);
+
+    private final int maxLimit;
+    private final int alpha;     // grow below this many queued calls
+    private final int beta;      // shrink above this many queued calls
+    private final int probeInterval;
+
+    private volatile int limit;
+    private long minRttNanos = Long.MAX_VALUE;
+    private int samples = 0;
+
+    public VegasLimit(int initialLimit, int maxLimit, int alpha, int beta) {
+        if (initialLimit < 1 || initialLimit > maxLimit) {
+            throw new IllegalArgumentException("expected 1 <= initialLimit <= maxLimit");
+        }
+        if (alpha < 0 || beta < alpha) {
+            throw new IllegalArgumentException("expected 0 <= alpha <= beta");
+        }
+        this.limit = initialLimit;
+        this.maxLimit = maxLimit;
+        this.alpha = alpha;
+        this.beta = beta;
+        this.probeInterval = 1000;
+    }
+
+    public VegasLimit(int initialLimit, int maxLimit) {
+        this(initialLimit, maxLimit, 3, 6);
+    }
+
+    @Override
+    public int getLimit() {
+        return limit;
+    }
+
+    @Override
+    public synchronized void onSample(long rttNanos, int inFlight, boolean dropped) {
+        int current = limit;
+        int next;
+
+        // forget the no-load latency now and then, the dependency may have become slower for good
+        if (++samples % probeInterval == 0) {
+            minRttNanos = Long.MAX_VALUE;
+        }
+        if (rttNanos > 0 && rttNanos < minRttNanos) {
+            minRttNanos = rttNanos;
+        }
+
+        if (dropped) {
+            next = Math.max(1, current / 2);
+        } else if (inFlight * 2 < current) {
+            // limit is not used, latency says nothing about it
+            return;
+        } else {
+            double queue = current * (1.0 - (double) minRttNanos / Math.max(rttNanos, 1L));
+            int step = Math.max(1, (int) Math.log10(current));
+            if (queue < alpha) {
+                next = Math.min(maxLimit, current + step);
+            } else if (queue > beta) {
+                next = Math.max(1, current - step);
+            } else {
+                return;
+            }
+        }
+        if (next != current) {
+            log.debug("Limit changed from {} to {}", current, next);
+            limit = next;
+        }
+    }
+}
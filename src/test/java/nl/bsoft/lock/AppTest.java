@@ -38,6 +38,31 @@ public class AppTest {
         log.info("End   test: {}", name.getMethodName());
     }
 
+    @Test
+    public void ParseArguments() {
+        log.info("Start test: {}", name.getMethodName());
+
+        LoadGenerator.Config config = App.parse(new String[]{"--threads=8", "--strategy=read-write",
+                "--executor=work_stealing", "--read-ratio=0.9", "--rate=5000", "--duration=30", "--warmup=5"});
+        Assert.assertEquals(8, config.threads);
+        Assert.assertEquals(LoadGenerator.Strategy.READ_WRITE, config.strategy);
+        Assert.assertEquals(LoadGenerator.ExecutorType.WORK_STEALING, config.executorType);
+        Assert.assertEquals(0.9, config.readRatio, 0.0);
+        Assert.assertEquals(5000, config.rate);
+        Assert.assertEquals(30, config.durationSeconds);
+        Assert.assertEquals(5, config.warmupSeconds);
+        Assert.assertNull(App.parse(new String[]{"--help"}));
+
+        log.info("End   test: {}", name.getMethodName());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void ParseBadArgument() {
+        log.info("Start test: {}", name.getMethodName());
+
+        App.parse(new String[]{"--strategy=spinlock"});
+    }
+
     @Test
     public void StartThreadSingleShot() {
         log.info("Start test: {}", name.getMethodName());
@@ -0,0 +1,128 @@
+package nl.bsoft.lock;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestName;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+public class ConcurrencyLimiterTest {
+    private final Logger log = LoggerFactory.getLogger(ConcurrencyLimiterTest.class);
+
+    @Rule
+    public TestName name = new TestName();
+
+    private Callable<Integer> blockingTask(CountDownLatch started, CountDownLatch release) {
+        return () -> {
+            started.countDown();
+            release.await();
+            return 1;
+        };
+    }
+
+    @Test
+    public void rejectAboveLimit() throws Exception {
+        log.info("Start test: {}", name.getMethodName());
+
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(new AimdLimit(2, 2));
+        CountDownLatch started = new CountDownLatch(2);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+
+        try {
+            Future<Integer> future01 = executor.submit(limiter.wrap(blockingTask(started, release)));
+            Future<Integer> future02 = executor.submit(limiter.wrap(blockingTask(started, release)));
+            started.await(1, TimeUnit.SECONDS);
+            Assert.assertEquals(2, limiter.getInFlight());
+
+            try {
+                limiter.call(() -> 3);
+                Assert.fail("call above the limit should be rejected");
+            } catch (RejectedExecutionException e) {
+                log.info("Rejected: {}", e.getMessage());
+            }
+
+            release.countDown();
+            Assert.assertEquals(Integer.valueOf(1), future01.get(1, TimeUnit.SECONDS));
+            Assert.assertEquals(Integer.valueOf(1), future02.get(1, TimeUnit.SECONDS));
+            Assert.assertEquals(Integer.valueOf(3), limiter.call(() -> 3));
+        } finally {
+            new ConcurrentUtils().stop(executor, 1);
+        }
+        log.info("Limiter: {}", limiter);
+        Assert.assertEquals(1, limiter.getRejected());
+        Assert.assertEquals(3, limiter.getAccepted());
+        Assert.assertEquals(0, limiter.getInFlight());
+
+        log.info("End   test: {}", name.getMethodName());
+    }
+
+    @Test
+    public void queueUntilSlotIsFree() throws Exception {
+        log.info("Start test: {}", name.getMethodName());
+
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(new AimdLimit(1, 1), 10, 2, TimeUnit.SECONDS);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        Callable<Integer> task = limiter.wrap(() -> {
+            TimeUnit.MILLISECONDS.sleep(50);
+            return 1;
+        });
+
+        try {
+            List<Future<Integer>> futures = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                futures.add(executor.submit(task));
+            }
+            int sum = 0;
+            for (Future<Integer> future : futures) {
+                sum += future.get(5, TimeUnit.SECONDS);
+            }
+            Assert.assertEquals(4, sum);
+        } finally {
+            new ConcurrentUtils().stop(executor, 1);
+        }
+        log.info("Limiter: {}", limiter);
+        Assert.assertEquals(0, limiter.getRejected());
+        Assert.assertTrue(limiter.getWaitTime(TimeUnit.MILLISECONDS) > 0);
+
+        log.info("End   test: {}", name.getMethodName());
+    }
+
+    @Test
+    public void aimdBacksOffOnFailure() {
+        log.info("Start test: {}", name.getMethodName());
+
+        AimdLimit limit = new AimdLimit(10, 1, 20, 0.5, 1, TimeUnit.SECONDS);
+        limit.onSample(TimeUnit.MILLISECONDS.toNanos(1), 10, false);
+        Assert.assertEquals(11, limit.getLimit());
+        limit.onSample(TimeUnit.MILLISECONDS.toNanos(1), 10, true);
+        Assert.assertEquals(5, limit.getLimit());
+        limit.onSample(TimeUnit.SECONDS.toNanos(2), 5, false);
+        Assert.assertEquals(2, limit.getLimit());
+
+        log.info("End   test: {}", name.getMethodName());
+    }
+
+    @Test
+    public void vegasShrinksWhenLatencyGrows() {
+        log.info("Start test: {}", name.getMethodName());
+
+        VegasLimit limit = new VegasLimit(20, 100);
+        limit.onSample(TimeUnit.MILLISECONDS.toNanos(10), 20, false);
+        Assert.assertTrue(limit.getLimit() > 20);
+
+        int before = limit.getLimit();
+        for (int i = 0; i < 10; i++) {
+            limit.onSample(TimeUnit.MILLISECONDS.toNanos(40), before, false);
+        }
+        log.info("Limit before: {}, after: {}", before, limit.getLimit());
+        Assert.assertTrue(limit.getLimit() < before);
+
+        log.info("End   test: {}", name.getMethodName());
+    }
+}
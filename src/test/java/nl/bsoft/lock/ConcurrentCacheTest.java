@@ -0,0 +1,223 @@
+package nl.bsoft.lock;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestName;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ConcurrentCacheTest {
+    private final Logger log = LoggerFactory.getLogger(ConcurrentCacheTest.class);
+
+    @Rule
+    public TestName name = new TestName();
+
+    private final AtomicInteger loads = new AtomicInteger();
+
+    private Integer slowSquare(Integer key) throws InterruptedException {
+        loads.incrementAndGet();
+        TimeUnit.MILLISECONDS.sleep(100);
+        return key * key;
+    }
+
+    @Test
+    public void loadOncePerKey() throws Exception {
+        log.info("Start test: {}", name.getMethodName());
+
+        ConcurrentCache<Integer, Integer> cache = ConcurrentCache.<Integer, Integer>newBuilder()
+                .maximumSize(100)
+                .build(this::slowSquare);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+
+        try {
+            List<Future<Integer>> futures = new ArrayList<>();
+            for (int i = 0; i < 16; i++) {
+                futures.add(executor.submit(() -> cache.get(7)));
+            }
+            for (Future<Integer> future : futures) {
+                Assert.assertEquals(Integer.valueOf(49), future.get(5, TimeUnit.SECONDS));
+            }
+        } finally {
+            new ConcurrentUtils().stop(executor, 1);
+        }
+        log.info("Stats: {}", cache.stats());
+        Assert.assertEquals(1, loads.get());
+        Assert.assertEquals(1, cache.stats().getLoadSuccessCount());
+        Assert.assertEquals(16, cache.stats().getHitCount() + cache.stats().getMissCount());
+
+        log.info("End   test: {}", name.getMethodName());
+    }
+
+    @Test
+    public void frequentKeysSurviveScan() throws Exception {
+        log.info("Start test: {}", name.getMethodName());
+
+        ConcurrentCache<Integer, Integer> cache = ConcurrentCache.<Integer, Integer>newBuilder()
+                .maximumSize(100)
+                .build(key -> key);
+
+        for (int round = 0; round < 10; round++) {
+            for (int key = 0; key < 50; key++) {
+                cache.get(key);
+            }
+        }
+        // one-off keys should not push out the popular ones
+        for (int key = 1000; key < 3000; key++) {
+            cache.get(key);
+        }
+        cache.cleanUp();
+
+        int present = 0;
+        for (int key = 0; key < 50; key++) {
+            if (cache.getIfPresent(key) != null) {
+                present++;
+            }
+        }
+        log.info("Popular keys still present: {}, stats: {}", present, cache.stats());
+        Assert.assertTrue(cache.size() <= 100);
+        Assert.assertTrue(present >= 45);
+        Assert.assertTrue(cache.stats().getEvictionCount() > 0);
+
+        log.info("End   test: {}", name.getMethodName());
+    }
+
+    @Test
+    public void maximumWeight() throws Exception {
+        log.info("Start test: {}", name.getMethodName());
+
+        ConcurrentCache<Integer, String> cache = ConcurrentCache.<Integer, String>newBuilder()
+                .maximumWeight(100, (key, value) -> value.length())
+                .build(key -> new String(new char[key]));
+
+        for (int key = 1; key <= 30; key++) {
+            cache.get(key);
+        }
+        log.info("Size: {}, weight: {}", cache.size(), cache.weight());
+        Assert.assertTrue(cache.weight() <= 100);
+
+        log.info("End   test: {}", name.getMethodName());
+    }
+
+    @Test
+    public void expireAfterWrite() throws Exception {
+        log.info("Start test: {}", name.getMethodName());
+
+        ConcurrentCache<Integer, Integer> cache = ConcurrentCache.<Integer, Integer>newBuilder()
+                .maximumSize(10)
+                .expireAfterWrite(150, TimeUnit.MILLISECONDS)
+                .build(this::slowSquare);
+
+        Assert.assertEquals(Integer.valueOf(4), cache.get(2));
+        Assert.assertEquals(Integer.valueOf(4), cache.get(2));
+        Assert.assertEquals(1, loads.get());
+        TimeUnit.MILLISECONDS.sleep(200);
+        Assert.assertNull(cache.getIfPresent(2));
+        Assert.assertEquals(Integer.valueOf(4), cache.get(2));
+        Assert.assertEquals(2, loads.get());
+
+        log.info("End   test: {}", name.getMethodName());
+    }
+
+    @Test
+    public void refreshAfterWrite() throws Exception {
+        log.info("Start test: {}", name.getMethodName());
+
+        AtomicInteger version = new AtomicInteger();
+        CountDownLatch refresh = new CountDownLatch(1);
+        ConcurrentCache<String, Integer> cache = ConcurrentCache.<String, Integer>newBuilder()
+                .maximumSize(10)
+                .refreshAfterWrite(50, TimeUnit.MILLISECONDS)
+                .build(key -> {
+                    if (version.get() > 0) {
+                        // hold the refresh until the stale value was read
+                        refresh.await(2, TimeUnit.SECONDS);
+                    }
+                    return version.incrementAndGet();
+                });
+
+        Assert.assertEquals(Integer.valueOf(1), cache.get("key"));
+        TimeUnit.MILLISECONDS.sleep(100);
+        // stale value is served while the refresh runs in the background
+        Assert.assertEquals(Integer.valueOf(1), cache.get("key"));
+        refresh.countDown();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+        while (cache.getIfPresent("key") != 2 && System.nanoTime() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        Assert.assertEquals(Integer.valueOf(2), cache.getIfPresent("key"));
+
+        log.info("End   test: {}", name.getMethodName());
+    }
+
+    @Test
+    public void failedLoadIsNotCached() throws Exception {
+        log.info("Start test: {}", name.getMethodName());
+
+        ConcurrentCache<Integer, Integer> cache = ConcurrentCache.<Integer, Integer>newBuilder()
+                .maximumSize(10)
+                .build(key -> {
+                    if (loads.incrementAndGet() == 1) {
+                        throw new IllegalStateException("first load fails");
+                    }
+                    return key;
+                });
+
+        try {
+            cache.get(1);
+            Assert.fail("expected the loader failure");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        Assert.assertEquals(Integer.valueOf(1), cache.get(1));
+        Assert.assertEquals(1, cache.stats().getLoadFailureCount());
+
+        log.info("End   test: {}", name.getMethodName());
+    }
+
+    @Test
+    public void waitersSeeUncheckedFailure() throws Exception {
+        log.info("Start test: {}", name.getMethodName());
+
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ConcurrentCache<Integer, Integer> cache = ConcurrentCache.<Integer, Integer>newBuilder()
+                .maximumWeight(100, (key, value) -> -1)
+                .build(key -> {
+                    loading.countDown();
+                    release.await();
+                    return key;
+                });
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+
+        try {
+            Future<Integer> first = executor.submit(() -> cache.get(1));
+            Assert.assertTrue(loading.await(5, TimeUnit.SECONDS));
+            Future<Integer> second = executor.submit(() -> cache.get(1));
+            // let the second caller join the load in progress
+            TimeUnit.MILLISECONDS.sleep(50);
+            release.countDown();
+
+            for (Future<Integer> future : Arrays.asList(first, second)) {
+                try {
+                    future.get(5, TimeUnit.SECONDS);
+                    Assert.fail("expected the weigher failure");
+                } catch (ExecutionException e) {
+                    // the loading caller throws it directly, the waiter wrapped
+                    Throwable cause = e.getCause() instanceof ExecutionException ? e.getCause().getCause() : e.getCause();
+                    Assert.assertTrue(cause instanceof IllegalArgumentException);
+                }
+            }
+        } finally {
+            new ConcurrentUtils().stop(executor);
+        }
+
+        log.info("End   test: {}", name.getMethodName());
+    }
+}
@@ -0,0 +1,167 @@
+package nl.bsoft.lock;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestName;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class DeadlineExecutorTest {
+    private final Logger log = LoggerFactory.getLogger(DeadlineExecutorTest.class);
+
+    @Rule
+    public TestName name = new TestName();
+
+    private final ExecutorService workers = Executors.newFixedThreadPool(1);
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+    private final DeadlineExecutor executor = new DeadlineExecutor(workers, timer);
+
+    @After
+    public void stop() {
+        ConcurrentUtils utils = new ConcurrentUtils();
+        utils.stop(executor, 1);
+        utils.stop(timer, 1);
+    }
+
+    @Test
+    public void sleepingTaskIsInterruptedAtDeadline() throws Exception {
+        log.info("Start test: {}", name.getMethodName());
+
+        AtomicBoolean interrupted = new AtomicBoolean();
+        Future<Integer> future = executor.submit(() -> {
+            try {
+                TimeUnit.SECONDS.sleep(2);
+                return 123;
+            } catch (InterruptedException e) {
+                interrupted.set(true);
+                throw new IllegalStateException("task interrupted", e);
+            }
+        }, 100, TimeUnit.MILLISECONDS);
+
+        try {
+            future.get(1L, TimeUnit.SECONDS);
+            Assert.fail("task should not finish");
+        } catch (CancellationException e) {
+            log.info("Task cancelled at deadline");
+        }
+        // the single worker is free again well before the two seconds of the task
+        long start = System.nanoTime();
+        Assert.assertEquals(Integer.valueOf(1), executor.submit(() -> 1).get(1L, TimeUnit.SECONDS));
+        Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 500);
+        Assert.assertTrue(interrupted.get());
+
+        log.info("End   test: {}", name.getMethodName());
+    }
+
+    @Test
+    public void cooperativeCheck() throws Exception {
+        log.info("Start test: {}", name.getMethodName());
+
+        Future<Long> future = executor.submit(() -> {
+            long loops = 0;
+            for (; ; ) {
+                Deadline.checkCurrent();
+                loops++;
+            }
+        }, Deadline.after(50, TimeUnit.MILLISECONDS));
+
+        try {
+            future.get(1L, TimeUnit.SECONDS);
+            Assert.fail("task should not finish");
+        } catch (CancellationException e) {
+            log.info("Task cancelled at deadline");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof DeadlineExceededException);
+        }
+
+        log.info("End   test: {}", name.getMethodName());
+    }
+
+    @Test
+    public void nestedSubmissionInheritsDeadline() throws Exception {
+        log.info("Start test: {}", name.getMethodName());
+
+        ExecutorService nestedWorkers = Executors.newFixedThreadPool(1);
+        DeadlineExecutor nested = new DeadlineExecutor(nestedWorkers, timer);
+        try {
+            Deadline deadline = Deadline.after(1, TimeUnit.SECONDS);
+            Future<Deadline> future = executor.submit(() -> nested.submit(Deadline::current).get(), deadline);
+            Assert.assertEquals(deadline, future.get(1L, TimeUnit.SECONDS));
+
+            // a shorter timeout wins, a longer one does not extend the deadline
+            Future<Deadline> shorter = executor.submit(
+                    () -> nested.submit(Deadline::current, 10, TimeUnit.SECONDS).get(), deadline);
+            Assert.assertEquals(deadline, shorter.get(1L, TimeUnit.SECONDS));
+
+            Assert.assertNull(executor.submit(Deadline::current).get(1L, TimeUnit.SECONDS));
+        } finally {
+            new ConcurrentUtils().stop(nested, 1);
+        }
+
+        log.info("End   test: {}", name.getMethodName());
+    }
+
+    @Test
+    public void expiredTaskIsNotStarted() throws Exception {
+        log.info("Start test: {}", name.getMethodName());
+
+        AtomicBoolean started = new AtomicBoolean();
+        CountDownLatch release = new CountDownLatch(1);
+        executor.submit(() -> {
+            release.await();
+            return 0;
+        });
+        Future<Integer> queued = executor.submit(() -> {
+            started.set(true);
+            return 1;
+        }, 10, TimeUnit.MILLISECONDS);
+        TimeUnit.MILLISECONDS.sleep(50);
+        release.countDown();
+
+        Assert.assertTrue(queued.isCancelled());
+        TimeUnit.MILLISECONDS.sleep(50);
+        Assert.assertFalse(started.get());
+
+        log.info("End   test: {}", name.getMethodName());
+    }
+
+    @Test
+    public void interruptWhenAllCallersGiveUp() throws Exception {
+        log.info("Start test: {}", name.getMethodName());
+
+        SingleFlight<String> singleFlight = new SingleFlight<>(executor);
+        AtomicBoolean interrupted = new AtomicBoolean();
+        Callable<Integer> slow = () -> {
+            try {
+                TimeUnit.SECONDS.sleep(5);
+                return 1;
+            } catch (InterruptedException e) {
+                interrupted.set(true);
+                throw new IllegalStateException("task interrupted", e);
+            }
+        };
+
+        Future<Integer> first = singleFlight.submit("key", slow);
+        Future<Integer> second = singleFlight.submit("key", slow);
+        List<Future<Integer>> callers = Arrays.asList(first, second);
+        for (Future<Integer> caller : callers) {
+            try {
+                Deadline.after(50, TimeUnit.MILLISECONDS).get(caller);
+                Assert.fail("caller should give up");
+            } catch (DeadlineExceededException e) {
+                log.info("Caller gave up: {}", e.getMessage());
+            }
+        }
+        Assert.assertEquals(Integer.valueOf(2), executor.submit(() -> 2).get(1L, TimeUnit.SECONDS));
+        Assert.assertTrue(interrupted.get());
+
+        log.info("End   test: {}", name.getMethodName());
+    }
+}
@@ -0,0 +1,293 @@
+package nl.bsoft.lock;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.TestName;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.IntStream;
+
+public class GroupCommitSinkTest {
+    private final Logger log = LoggerFactory.getLogger(GroupCommitSinkTest.class);
+
+    @Rule
+    public TestName name = new TestName();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Channel that, once armed, writes half of the next buffer and then fails, like a full disk.
+     */
+    private static class FailingChannel extends FileChannel {
+        final AtomicBoolean failNextWrite = new AtomicBoolean();
+        private final FileChannel delegate;
+
+        FailingChannel(FileChannel delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            if (failNextWrite.compareAndSet(true, false)) {
+                ByteBuffer half = src.duplicate();
+                half.limit(src.position() + src.remaining() / 2);
+                int written = delegate.write(half);
+                src.position(src.position() + written);
+                throw new IOException("no space left on device");
+            }
+            return delegate.write(src);
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            return delegate.read(dst);
+        }
+
+        @Override
+        public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+            return delegate.read(dsts, offset, length);
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+            return delegate.write(srcs, offset, length);
+        }
+
+        @Override
+        public long position() throws IOException {
+            return delegate.position();
+        }
+
+        @Override
+        public FileChannel position(long newPosition) throws IOException {
+            delegate.position(newPosition);
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException {
+            return delegate.size();
+        }
+
+        @Override
+        public FileChannel truncate(long size) throws IOException {
+            delegate.truncate(size);
+            return this;
+        }
+
+        @Override
+        public void force(boolean metaData) throws IOException {
+            delegate.force(metaData);
+        }
+
+        @Override
+        public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+            return delegate.transferTo(position, count, target);
+        }
+
+        @Override
+        public long transferFrom(ReadableByteChannel src, long position, long count) throws IOException {
+            return delegate.transferFrom(src, position, count);
+        }
+
+        @Override
+        public int read(ByteBuffer dst, long position) throws IOException {
+            return delegate.read(dst, position);
+        }
+
+        @Override
+        public int write(ByteBuffer src, long position) throws IOException {
+            return delegate.write(src, position);
+        }
+
+        @Override
+        public MappedByteBuffer map(MapMode mode, long position, long size) throws IOException {
+            return delegate.map(mode, position, size);
+        }
+
+        @Override
+        public FileLock lock(long position, long size, boolean shared) throws IOException {
+            return delegate.lock(position, size, shared);
+        }
+
+        @Override
+        public FileLock tryLock(long position, long size, boolean shared) throws IOException {
+            return delegate.tryLock(position, size, shared);
+        }
+
+        @Override
+        protected void implCloseChannel() throws IOException {
+            delegate.close();
+        }
+    }
+
+    @Test
+    public void resultsFromManyThreads() throws Exception {
+        log.info("Start test: {}", name.getMethodName());
+
+        Path file = folder.newFile("results.log").toPath();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<CompletableFuture<Long>>> futures = new ArrayList<>();
+
+        try (GroupCommitSink<Integer> sink = new GroupCommitSink<>(file, 128, 5, TimeUnit.MILLISECONDS)) {
+            IntStream.range(0, 2000)
+                    .forEach(i -> futures.add(executor.submit(() -> sink.append(i))));
+            Set<Long> offsets = new HashSet<>();
+            for (Future<CompletableFuture<Long>> future : futures) {
+                offsets.add(future.get().get(5, TimeUnit.SECONDS));
+            }
+            Assert.assertEquals(2000, offsets.size());
+            log.info("Records: {}, batches: {}", sink.getRecordCount(), sink.getBatchCount());
+            Assert.assertEquals(2000, sink.getRecordCount());
+            Assert.assertTrue(sink.getBatchCount() < 2000);
+        } finally {
+            new ConcurrentUtils().stop(executor, 1);
+        }
+
+        Set<Integer> stored = new HashSet<>();
+        for (byte[] record : GroupCommitSink.read(file)) {
+            stored.add(Integer.valueOf(new String(record, StandardCharsets.UTF_8)));
+        }
+        Assert.assertEquals(2000, stored.size());
+
+        log.info("End   test: {}", name.getMethodName());
+    }
+
+    @Test
+    public void singleResultWithinLatencyCap() throws Exception {
+        log.info("Start test: {}", name.getMethodName());
+
+        Path file = folder.newFile("single.log").toPath();
+        try (GroupCommitSink<String> sink = new GroupCommitSink<>(file, 100, 50, TimeUnit.MILLISECONDS)) {
+            long start = System.nanoTime();
+            Assert.assertEquals(Long.valueOf(0), sink.append("Result: 100").get(1, TimeUnit.SECONDS));
+            long waited = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            log.info("Durable after {} ms", waited);
+            Assert.assertTrue(waited < 1000);
+            Assert.assertEquals(Long.valueOf(4 + 11), sink.append("Result: 200").get(1, TimeUnit.SECONDS));
+        }
+        // appending reopens at the end of the file
+        try (GroupCommitSink<String> sink = new GroupCommitSink<>(file, 1, 0, TimeUnit.MILLISECONDS)) {
+            Assert.assertEquals(Long.valueOf(30), sink.append("Result: 300").get(1, TimeUnit.SECONDS));
+        }
+        Assert.assertEquals(3, GroupCommitSink.read(file).size());
+
+        log.info("End   test: {}", name.getMethodName());
+    }
+
+    @Test
+    public void failedWriteLeavesNoPartialRecord() throws Exception {
+        log.info("Start test: {}", name.getMethodName());
+
+        Path file = folder.newFile("partial.log").toPath();
+        FailingChannel channel = new FailingChannel(FileChannel.open(file, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND));
+        try (GroupCommitSink<String> sink = new GroupCommitSink<>(channel, "group-commit-partial", 1, 0,
+                TimeUnit.MILLISECONDS, result -> result.getBytes(StandardCharsets.UTF_8))) {
+            Assert.assertEquals(Long.valueOf(0), sink.append("first").get(1, TimeUnit.SECONDS));
+
+            channel.failNextWrite.set(true);
+            try {
+                sink.append("lost in a full disk").get(1, TimeUnit.SECONDS);
+                Assert.fail("failed write should fail the record");
+            } catch (ExecutionException e) {
+                Assert.assertTrue(e.getCause() instanceof IOException);
+            }
+
+            // the next record goes where the failed one started
+            Assert.assertEquals(Long.valueOf(4 + 5), sink.append("second").get(1, TimeUnit.SECONDS));
+        }
+
+        List<String> stored = new ArrayList<>();
+        for (byte[] record : GroupCommitSink.read(file)) {
+            stored.add(new String(record, StandardCharsets.UTF_8));
+        }
+        Assert.assertEquals(Arrays.asList("first", "second"), stored);
+
+        log.info("End   test: {}", name.getMethodName());
+    }
+
+    @Test
+    public void appendAfterClose() throws Exception {
+        log.info("Start test: {}", name.getMethodName());
+
+        GroupCommitSink<String> sink = new GroupCommitSink<>(folder.newFile("closed.log").toPath(), 10, 1,
+                TimeUnit.MILLISECONDS);
+        sink.close();
+        try {
+            sink.append("late").get(1, TimeUnit.SECONDS);
+            Assert.fail("append after close should fail");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+
+        log.info("End   test: {}", name.getMethodName());
+    }
+
+    @Test
+    public void appendConcurrentWithClose() throws Exception {
+        log.info("Start test: {}", name.getMethodName());
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            for (int round = 0; round < 20; round++) {
+                GroupCommitSink<String> sink = new GroupCommitSink<>(folder.newFile("race" + round + ".log").toPath(),
+                        10, 1, TimeUnit.MILLISECONDS);
+                List<CompletableFuture<Long>> futures = new CopyOnWriteArrayList<>();
+                CountDownLatch go = new CountDownLatch(1);
+                List<Future<?>> appenders = new ArrayList<>();
+                for (int i = 0; i < 4; i++) {
+                    appenders.add(executor.submit(() -> {
+                        go.await();
+                        for (int j = 0; j < 200; j++) {
+                            futures.add(sink.append("result"));
+                        }
+                        return null;
+                    }));
+                }
+                go.countDown();
+                sink.close();
+                for (Future<?> appender : appenders) {
+                    appender.get(5, TimeUnit.SECONDS);
+                }
+
+                // every record is either written or failed, none is left pending
+                long written = 0;
+                for (CompletableFuture<Long> future : futures) {
+                    try {
+                        future.get(1, TimeUnit.SECONDS);
+                        written++;
+                    } catch (ExecutionException e) {
+                        Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+                    }
+                }
+                Assert.assertEquals(written, sink.getRecordCount());
+            }
+        } finally {
+            new ConcurrentUtils().stop(executor);
+        }
+
+        log.info("End   test: {}", name.getMethodName());
+    }
+}
@@ -0,0 +1,116 @@
+package nl.bsoft.lock;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestName;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class LatencyHistogramTest {
+    private final Logger log = LoggerFactory.getLogger(LatencyHistogramTest.class);
+
+    @Rule
+    public TestName name = new TestName();
+
+    @Test
+    public void percentiles() {
+        log.info("Start test: {}", name.getMethodName());
+
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 1; value <= 100000; value++) {
+            histogram.record(value * 1000);
+        }
+        Assert.assertEquals(100000, histogram.getTotalCount());
+        Assert.assertEquals(100000000L, histogram.getMax());
+        Assert.assertEquals(100000000L, histogram.getValueAtPercentile(100.0));
+        assertWithin(50000000L, histogram.getValueAtPercentile(50.0), 0.032);
+        assertWithin(99000000L, histogram.getValueAtPercentile(99.0), 0.032);
+        assertWithin(50000500.0, histogram.getMean(), 0.032);
+
+        log.info("End   test: {}", name.getMethodName());
+    }
+
+    @Test
+    public void mergeAndEncode() {
+        log.info("Start test: {}", name.getMethodName());
+
+        LatencyHistogram first = new LatencyHistogram();
+        LatencyHistogram second = new LatencyHistogram();
+        for (long value = 0; value < 1000; value++) {
+            first.record(value);
+            second.record(value * 1000000);
+        }
+        first.add(second);
+        Assert.assertEquals(2000, first.getTotalCount());
+
+        byte[] encoded = first.encode();
+        log.info("Encoded size: {} bytes", encoded.length);
+        LatencyHistogram decoded = LatencyHistogram.decode(encoded);
+        Assert.assertEquals(first.getTotalCount(), decoded.getTotalCount());
+        Assert.assertEquals(first.getMax(), decoded.getMax());
+        for (double percentile : new double[]{10.0, 50.0, 75.0, 99.0, 99.9}) {
+            Assert.assertEquals(first.getValueAtPercentile(percentile), decoded.getValueAtPercentile(percentile));
+        }
+
+        log.info("End   test: {}", name.getMethodName());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void decodeGarbage() {
+        log.info("Start test: {}", name.getMethodName());
+
+        LatencyHistogram.decode(new byte[]{1, 2, 3});
+    }
+
+    @Test
+    public void intervalsLoseNothing() throws Exception {
+        log.info("Start test: {}", name.getMethodName());
+
+        LatencyRecorder recorder = new LatencyRecorder();
+        AtomicBoolean running = new AtomicBoolean(true);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        long total = 0;
+
+        try {
+            Future<?>[] futures = new Future<?>[4];
+            long[] recorded = new long[4];
+            for (int i = 0; i < 4; i++) {
+                int id = i;
+                futures[i] = executor.submit(() -> {
+                    while (running.get()) {
+                        recorder.record(recorded[id] % 5000);
+                        recorded[id]++;
+                    }
+                });
+            }
+            for (int i = 0; i < 20; i++) {
+                TimeUnit.MILLISECONDS.sleep(10);
+                total += recorder.getIntervalHistogram().getTotalCount();
+            }
+            running.set(false);
+            for (Future<?> future : futures) {
+                future.get(1, TimeUnit.SECONDS);
+            }
+            total += recorder.getIntervalHistogram().getTotalCount();
+
+            long expected = 0;
+            for (long count : recorded) {
+                expected += count;
+            }
+            log.info("Recorded {} values in intervals", total);
+            Assert.assertEquals(expected, total);
+        } finally {
+            new ConcurrentUtils().stop(executor, 1);
+        }
+
+        log.info("End   test: {}", name.getMethodName());
+    }
+
+    private void assertWithin(double expected, double actual, double relativeError) {
+        Assert.assertEquals(expected, actual, expected * relativeError);
+    }
+}
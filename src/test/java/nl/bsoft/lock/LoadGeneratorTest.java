@@ -0,0 +1,61 @@
+package nl.bsoft.lock;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestName;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class LoadGeneratorTest {
+    private final Logger log = LoggerFactory.getLogger(LoadGeneratorTest.class);
+
+    @Rule
+    public TestName name = new TestName();
+
+    @Test
+    public void closedLoop() throws InterruptedException {
+        log.info("Start test: {}", name.getMethodName());
+
+        LoadGenerator.Config config = new LoadGenerator.Config()
+                .threads(2)
+                .duration(1)
+                .warmup(0)
+                .strategy(LoadGenerator.Strategy.REENTRANT)
+                .readRatio(0.5);
+        LoadGenerator.Result result = new LoadGenerator(config).run();
+        log.info("Result: {}", result);
+
+        Assert.assertTrue(result.getOperations() > 0);
+        Assert.assertEquals(0, result.getLostUpdates());
+        Assert.assertTrue(result.getLatency(50.0) <= result.getLatency(99.0));
+        Assert.assertTrue(result.getLatency(99.0) <= result.getLatency(100.0));
+        // no warm-up, so no expected interval to correct with
+        Assert.assertFalse(result.isCorrected());
+        Assert.assertTrue(result.toString().contains("not corrected"));
+
+        log.info("End   test: {}", name.getMethodName());
+    }
+
+    @Test
+    public void openLoop() throws InterruptedException {
+        log.info("Start test: {}", name.getMethodName());
+
+        LoadGenerator.Config config = new LoadGenerator.Config()
+                .threads(2)
+                .duration(1)
+                .warmup(1)
+                .strategy(LoadGenerator.Strategy.ADDER)
+                .executorType(LoadGenerator.ExecutorType.WORK_STEALING)
+                .rate(1000);
+        LoadGenerator.Result result = new LoadGenerator(config).run();
+        log.info("Result: {}", result);
+
+        // fixed arrival rate, so the number of operations is known up front
+        Assert.assertEquals(1000, result.getOperations());
+        Assert.assertEquals(0, result.getLostUpdates());
+        Assert.assertTrue(result.isCorrected());
+
+        log.info("End   test: {}", name.getMethodName());
+    }
+}
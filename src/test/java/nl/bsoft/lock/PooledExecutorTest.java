@@ -0,0 +1,237 @@
+package nl.bsoft.lock;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestName;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+public class PooledExecutorTest {
+    private final Logger log = LoggerFactory.getLogger(PooledExecutorTest.class);
+
+    @Rule
+    public TestName name = new TestName();
+
+    private final int maxNumber = 200000; // number of loops
+
+    private static final Consumer<AtomicLong> INCREMENT = AtomicLong::incrementAndGet;
+
+    @Test
+    public void executeAll() throws Exception {
+        log.info("Start test: {}", name.getMethodName());
+
+        PooledExecutor executor = new PooledExecutor(2, 64);
+        AtomicLong count = new AtomicLong();
+
+        try {
+            for (int i = 0; i < maxNumber; i++) {
+                executor.execute(INCREMENT, count);
+            }
+        } finally {
+            executor.shutdown();
+            Assert.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        }
+        Assert.assertEquals(maxNumber, count.get());
+
+        log.info("End   test: {}", name.getMethodName());
+    }
+
+    @Test
+    public void submitWithResult() throws Exception {
+        log.info("Start test: {}", name.getMethodName());
+
+        PooledExecutor executor = new PooledExecutor(2, 4);
+
+        try {
+            PooledExecutor.PooledResult<Integer> result = executor.submit(() -> 123);
+            Assert.assertEquals(Integer.valueOf(123), result.get());
+            result.release();
+
+            PooledExecutor.PooledResult<Integer> failed = executor.submit(() -> {
+                throw new IllegalStateException("task failed");
+            });
+            try {
+                failed.get();
+                Assert.fail("expected the task failure");
+            } catch (ExecutionException e) {
+                Assert.assertEquals("task failed", e.getCause().getMessage());
+            }
+            failed.release();
+
+            // all slots are free again
+            for (int i = 0; i < 100; i++) {
+                PooledExecutor.PooledResult<Integer> next = executor.submit(() -> 1);
+                Assert.assertEquals(Integer.valueOf(1), next.get());
+                next.release();
+            }
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        }
+
+        log.info("End   test: {}", name.getMethodName());
+    }
+
+    @Test
+    public void shutdownLetsTasksFinish() throws Exception {
+        log.info("Start test: {}", name.getMethodName());
+
+        PooledExecutor executor = new PooledExecutor(1, 4);
+        CountDownLatch started = new CountDownLatch(1);
+        AtomicBoolean stop = new AtomicBoolean();
+
+        PooledExecutor.PooledResult<Long> busy = executor.submit(() -> {
+            started.countDown();
+            long spins = 0;
+            while (!stop.get()) {
+                spins++;
+            }
+            return spins;
+        });
+        PooledExecutor.PooledResult<String> sleeper = executor.submit(() -> {
+            TimeUnit.MILLISECONDS.sleep(10);
+            return "slept";
+        });
+        Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+        executor.shutdown();
+        stop.set(true);
+
+        Assert.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        Assert.assertTrue(busy.get() > 0);
+        // the interrupt that stops idle workers did not reach the running or the queued task
+        Assert.assertEquals("slept", sleeper.get());
+
+        log.info("End   test: {}", name.getMethodName());
+    }
+
+    @Test
+    public void interruptedSubmitterIsRejected() throws Exception {
+        log.info("Start test: {}", name.getMethodName());
+
+        PooledExecutor executor = new PooledExecutor(1, 1);
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            // the only carrier stays in use
+            executor.execute(() -> {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    log.error("task interrupted");
+                }
+            });
+            Thread.currentThread().interrupt();
+            try {
+                executor.execute(() -> log.info("never runs"));
+                Assert.fail("interrupted submitter should be rejected");
+            } catch (RejectedExecutionException e) {
+                Assert.assertTrue(Thread.interrupted());
+            }
+        } finally {
+            release.countDown();
+            executor.shutdown();
+        }
+        // the rejected submission does not keep the workers alive
+        Assert.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+
+        log.info("End   test: {}", name.getMethodName());
+    }
+
+    @Test
+    public void acceptedTasksRunDespiteShutdown() throws Exception {
+        log.info("Start test: {}", name.getMethodName());
+
+        for (int round = 0; round < 20; round++) {
+            PooledExecutor executor = new PooledExecutor(2, 8);
+            AtomicLong count = new AtomicLong();
+            AtomicLong accepted = new AtomicLong();
+            ExecutorService submitters = Executors.newFixedThreadPool(4);
+            CountDownLatch go = new CountDownLatch(1);
+            for (int i = 0; i < 4; i++) {
+                submitters.execute(() -> {
+                    try {
+                        go.await();
+                        for (; ; ) {
+                            executor.execute(INCREMENT, count);
+                            accepted.incrementAndGet();
+                        }
+                    } catch (RejectedExecutionException | InterruptedException e) {
+                        // shut down
+                    }
+                });
+            }
+            go.countDown();
+            TimeUnit.MILLISECONDS.sleep(2);
+            executor.shutdown();
+
+            Assert.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+            new ConcurrentUtils().stop(submitters, 5);
+            Assert.assertEquals(accepted.get(), count.get());
+        }
+
+        log.info("End   test: {}", name.getMethodName());
+    }
+
+    /**
+     * Allocation profile of the submitting thread, compared with a plain thread pool.
+     */
+    @Test
+    public void submissionDoesNotAllocate() throws Exception {
+        log.info("Start test: {}", name.getMethodName());
+
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+        long self = Thread.currentThread().getId();
+
+        PooledExecutor pooled = new PooledExecutor(2, 1024);
+        AtomicLong count = new AtomicLong();
+        long pooledBytes;
+        try {
+            // warm up so the submission path is compiled
+            for (int round = 0; round < 5; round++) {
+                for (int i = 0; i < maxNumber; i++) {
+                    pooled.execute(INCREMENT, count);
+                }
+            }
+            long before = threads.getThreadAllocatedBytes(self);
+            for (int i = 0; i < maxNumber; i++) {
+                pooled.execute(INCREMENT, count);
+            }
+            pooledBytes = threads.getThreadAllocatedBytes(self) - before;
+        } finally {
+            pooled.shutdown();
+            pooled.awaitTermination(5, TimeUnit.SECONDS);
+        }
+
+        ExecutorService plain = Executors.newFixedThreadPool(2);
+        long plainBytes;
+        try {
+            long before = threads.getThreadAllocatedBytes(self);
+            for (int i = 0; i < maxNumber; i++) {
+                plain.submit(count::incrementAndGet);
+            }
+            plainBytes = threads.getThreadAllocatedBytes(self) - before;
+        } finally {
+            new ConcurrentUtils().stop(plain, 5);
+        }
+
+        log.info("Allocated for {} submissions, pooled: {} bytes, plain thread pool: {} bytes",
+                maxNumber, pooledBytes, plainBytes);
+        Assert.assertEquals(7L * maxNumber, count.get());
+        // near zero: a few bytes per submission at most, against roughly a hundred for the plain pool
+        Assert.assertTrue(pooledBytes < maxNumber);
+        Assert.assertTrue(pooledBytes * 10 < plainBytes);
+
+        log.info("End   test: {}", name.getMethodName());
+    }
+}
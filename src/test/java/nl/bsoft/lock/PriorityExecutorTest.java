@@ -0,0 +1,154 @@
+package nl.bsoft.lock;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestName;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.*;
+
+public class PriorityExecutorTest {
+    private final Logger log = LoggerFactory.getLogger(PriorityExecutorTest.class);
+
+    @Rule
+    public TestName name = new TestName();
+
+    private static final int INTERACTIVE = 0;
+    private static final int BACKGROUND = 1;
+
+    private final List<String> order = new CopyOnWriteArrayList<>();
+
+    private Runnable task(String name, long millis) {
+        return () -> {
+            try {
+                TimeUnit.MILLISECONDS.sleep(millis);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException("task interrupted", e);
+            }
+            order.add(name);
+        };
+    }
+
+    @Test
+    public void interactiveOvertakesBackground() throws Exception {
+        log.info("Start test: {}", name.getMethodName());
+
+        PriorityExecutor executor = new PriorityExecutor(1, new int[]{4, 1}, 10, TimeUnit.SECONDS);
+        CountDownLatch release = new CountDownLatch(1);
+
+        try {
+            executor.execute(INTERACTIVE, () -> {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException("task interrupted", e);
+                }
+            });
+            for (int i = 0; i < 10; i++) {
+                executor.execute(BACKGROUND, task("background", 5));
+            }
+            Future<?> last = null;
+            for (int i = 0; i < 10; i++) {
+                last = executor.submit(INTERACTIVE, task("interactive", 1));
+            }
+            release.countDown();
+            last.get(5, TimeUnit.SECONDS);
+
+            log.info("Order: {}", order);
+            Assert.assertTrue(order.lastIndexOf("interactive") <= 13);
+            executor.shutdown();
+            Assert.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+        log.info("Queue time interactive p99: {} us, background p99: {} us",
+                executor.getQueueTime(INTERACTIVE).getValueAtPercentile(99.0) / 1000,
+                executor.getQueueTime(BACKGROUND).getValueAtPercentile(99.0) / 1000);
+        Assert.assertEquals(11, executor.getQueueTime(INTERACTIVE).getTotalCount());
+        Assert.assertEquals(10, order.stream().filter("background"::equals).count());
+
+        log.info("End   test: {}", name.getMethodName());
+    }
+
+    @Test
+    public void agingPreventsStarvation() throws Exception {
+        log.info("Start test: {}", name.getMethodName());
+
+        PriorityExecutor executor = new PriorityExecutor(1, new int[]{100, 1}, 50, TimeUnit.MILLISECONDS);
+
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        try {
+            // hold the only worker until every task is queued and the background task has aged
+            executor.execute(INTERACTIVE, () -> {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException("task interrupted", e);
+                }
+            });
+            Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+            executor.execute(BACKGROUND, task("background", 0));
+            for (int i = 0; i < 20; i++) {
+                executor.execute(INTERACTIVE, task("interactive", 0));
+            }
+            TimeUnit.MILLISECONDS.sleep(100);
+            release.countDown();
+            executor.shutdown();
+            Assert.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+        log.info("Order: {}", order);
+        // without aging weight 100 against 1 would run all interactive tasks first
+        Assert.assertEquals("background", order.get(0));
+        Assert.assertEquals(1, executor.getAgedCount(BACKGROUND));
+
+        log.info("End   test: {}", name.getMethodName());
+    }
+
+    @Test
+    public void agingKeepsWeightsWhenSaturated() throws Exception {
+        log.info("Start test: {}", name.getMethodName());
+
+        PriorityExecutor executor = new PriorityExecutor(1, new int[]{10, 1}, 20, TimeUnit.MILLISECONDS);
+
+        try {
+            for (int i = 0; i < 200; i++) {
+                executor.execute(BACKGROUND, task("background", 5));
+            }
+            // let the whole background backlog age
+            TimeUnit.MILLISECONDS.sleep(100);
+            for (int i = 0; i < 5; i++) {
+                long start = System.nanoTime();
+                executor.submit(INTERACTIVE, () -> 1).get(5, TimeUnit.SECONDS);
+                long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                log.info("Interactive task done after {} ms", millis);
+                // at most a background task or two ahead of it, not the backlog of a second
+                Assert.assertTrue(millis < 100);
+            }
+            Assert.assertTrue(executor.getQueued(BACKGROUND) > 100);
+            Assert.assertTrue(executor.getAgedCount(BACKGROUND) > 0);
+        } finally {
+            executor.shutdownNow();
+        }
+        Assert.assertTrue(executor.getQueueTime(INTERACTIVE).getValueAtPercentile(99.0)
+                < TimeUnit.MILLISECONDS.toNanos(100));
+
+        log.info("End   test: {}", name.getMethodName());
+    }
+
+    @Test(expected = RejectedExecutionException.class)
+    public void rejectAfterShutdown() {
+        log.info("Start test: {}", name.getMethodName());
+
+        PriorityExecutor executor = new PriorityExecutor(1, new int[]{1}, 1, TimeUnit.SECONDS);
+        executor.shutdown();
+        executor.submit(() -> 1);
+    }
+}
@@ -0,0 +1,127 @@
+package nl.bsoft.lock;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestName;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+public class RateLimiterTest {
+    private final Logger log = LoggerFactory.getLogger(RateLimiterTest.class);
+
+    @Rule
+    public TestName name = new TestName();
+
+    @Test
+    public void tryAcquireBurst() {
+        log.info("Start test: {}", name.getMethodName());
+
+        RateLimiter limiter = new RateLimiter(1.0, 5);
+        Assert.assertEquals(5, limiter.getAvailablePermits());
+        Assert.assertTrue(limiter.tryAcquire(3));
+        Assert.assertTrue(limiter.tryAcquire(2));
+        Assert.assertFalse(limiter.tryAcquire());
+        Assert.assertEquals(0, limiter.getAvailablePermits());
+
+        log.info("End   test: {}", name.getMethodName());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void tryAcquireMoreThanBurst() {
+        log.info("Start test: {}", name.getMethodName());
+
+        new RateLimiter(10.0, 2).tryAcquire(3);
+    }
+
+    @Test
+    public void tryAcquireManyThreads() {
+        log.info("Start test: {}", name.getMethodName());
+
+        RateLimiter limiter = new RateLimiter(0.001, 1000);
+        AtomicInteger granted = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+
+        try {
+            IntStream.range(0, 10000)
+                    .forEach(i -> executor.submit(() -> {
+                        if (limiter.tryAcquire()) {
+                            granted.incrementAndGet();
+                        }
+                    }));
+            executor.shutdown();
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            log.error("tasks interrupted");
+        } finally {
+            executor.shutdownNow();
+        }
+        log.info("Granted permits: {}", granted.get());
+        Assert.assertEquals(1000, granted.get());
+
+        log.info("End   test: {}", name.getMethodName());
+    }
+
+    @Test
+    public void acquireWithTimeout() throws InterruptedException {
+        log.info("Start test: {}", name.getMethodName());
+
+        RateLimiter limiter = new RateLimiter(10.0, 1);
+        Assert.assertTrue(limiter.tryAcquire());
+
+        long start = System.nanoTime();
+        Assert.assertTrue(limiter.acquire(1, 1, TimeUnit.SECONDS));
+        long waited = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        log.info("Waited {} ms for permit", waited);
+        Assert.assertTrue(waited >= 50);
+
+        Assert.assertFalse(limiter.acquire(1, 10, TimeUnit.MILLISECONDS));
+
+        log.info("End   test: {}", name.getMethodName());
+    }
+
+    @Test
+    public void acquireAsync() throws Exception {
+        log.info("Start test: {}", name.getMethodName());
+
+        RateLimiter limiter = new RateLimiter(20.0, 1);
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        try {
+            CompletableFuture<Void> first = limiter.acquireAsync(1, scheduler);
+            CompletableFuture<Void> second = limiter.acquireAsync(1, scheduler);
+            Assert.assertTrue(first.isDone());
+            Assert.assertFalse(second.isDone());
+            second.get(1, TimeUnit.SECONDS);
+            Assert.assertTrue(second.isDone());
+        } finally {
+            new ConcurrentUtils().stop(scheduler, 1);
+        }
+
+        log.info("End   test: {}", name.getMethodName());
+    }
+
+    @Test
+    public void acquireAsyncRejected() throws Exception {
+        log.info("Start test: {}", name.getMethodName());
+
+        RateLimiter limiter = new RateLimiter(1.0, 2);
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        scheduler.shutdown();
+
+        Assert.assertTrue(limiter.tryAcquire());
+        try {
+            limiter.acquireAsync(2, scheduler).get(1, TimeUnit.SECONDS);
+            Assert.fail("rejected schedule should fail the future");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+        // the failed reservation was given back
+        Assert.assertEquals(1, limiter.getAvailablePermits());
+
+        log.info("End   test: {}", name.getMethodName());
+    }
+}
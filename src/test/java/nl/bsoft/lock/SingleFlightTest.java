@@ -0,0 +1,121 @@
+package nl.bsoft.lock;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestName;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SingleFlightTest {
+    private final Logger log = LoggerFactory.getLogger(SingleFlightTest.class);
+
+    @Rule
+    public TestName name = new TestName();
+
+    private final AtomicInteger runs = new AtomicInteger();
+
+    Callable<Integer> task(Integer result, long timeOut) {
+        return () -> {
+            runs.incrementAndGet();
+            TimeUnit.MILLISECONDS.sleep(timeOut);
+            log.info("Ready waiting in task, result: {}, timeout: {}", result, timeOut);
+            return result;
+        };
+    }
+
+    @Test
+    public void shareRunningComputation() throws Exception {
+        log.info("Start test: {}", name.getMethodName());
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        SingleFlight<String> singleFlight = new SingleFlight<>(executor);
+
+        try {
+            List<Future<Integer>> futures = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                futures.add(singleFlight.submit("key", task(100, 200)));
+            }
+            futures.add(singleFlight.submit("other", task(200, 200)));
+            for (int i = 0; i < 100; i++) {
+                Assert.assertEquals(Integer.valueOf(100), futures.get(i).get(1, TimeUnit.SECONDS));
+            }
+            Assert.assertEquals(Integer.valueOf(200), futures.get(100).get(1, TimeUnit.SECONDS));
+            Assert.assertEquals(2, runs.get());
+            Assert.assertEquals(99, singleFlight.getShared());
+
+            // key is released once the computation is done
+            Assert.assertEquals(0, singleFlight.getInFlight());
+            Assert.assertEquals(Integer.valueOf(100), singleFlight.submit("key", task(100, 10)).get(1, TimeUnit.SECONDS));
+            Assert.assertEquals(3, runs.get());
+        } finally {
+            new ConcurrentUtils().stop(executor, 1);
+        }
+
+        log.info("End   test: {}", name.getMethodName());
+    }
+
+    @Test
+    public void failurePropagatesToAllWaiters() throws Exception {
+        log.info("Start test: {}", name.getMethodName());
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        SingleFlight<Integer> singleFlight = new SingleFlight<>(executor);
+        Callable<Integer> failing = () -> {
+            TimeUnit.MILLISECONDS.sleep(100);
+            throw new IllegalStateException("backend down");
+        };
+
+        try {
+            Future<Integer> future01 = singleFlight.submit(1, failing);
+            Future<Integer> future02 = singleFlight.submit(1, failing);
+            List<Future<Integer>> futures = Arrays.asList(future01, future02);
+            for (Future<Integer> future : futures) {
+                try {
+                    future.get(1, TimeUnit.SECONDS);
+                    Assert.fail("expected the task failure");
+                } catch (ExecutionException e) {
+                    Assert.assertEquals("backend down", e.getCause().getMessage());
+                }
+            }
+            Assert.assertEquals(1, singleFlight.getExecuted());
+        } finally {
+            new ConcurrentUtils().stop(executor, 1);
+        }
+
+        log.info("End   test: {}", name.getMethodName());
+    }
+
+    @Test
+    public void cancelWhenAllCallersLeave() throws Exception {
+        log.info("Start test: {}", name.getMethodName());
+
+        ExecutorService executor = Executors.newFixedThreadPool(1);
+        SingleFlight<String> singleFlight = new SingleFlight<>(executor);
+
+        try {
+            Future<Integer> future01 = singleFlight.submit("key", task(1, 5000));
+            Future<Integer> future02 = singleFlight.submit("key", task(1, 5000));
+
+            Assert.assertTrue(future01.cancel(true));
+            Assert.assertTrue(future01.isCancelled());
+            Assert.assertFalse(future02.isDone());
+
+            Assert.assertTrue(future02.cancel(true));
+            Assert.assertEquals(0, singleFlight.getInFlight());
+
+            // worker was interrupted and is free again
+            Assert.assertEquals(Integer.valueOf(2), singleFlight.submit("key", task(2, 10)).get(1, TimeUnit.SECONDS));
+        } finally {
+            new ConcurrentUtils().stop(executor, 1);
+        }
+
+        log.info("End   test: {}", name.getMethodName());
+    }
+}
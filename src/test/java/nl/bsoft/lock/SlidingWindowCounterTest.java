@@ -0,0 +1,74 @@
+package nl.bsoft.lock;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestName;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
+public class SlidingWindowCounterTest {
+    private final Logger log = LoggerFactory.getLogger(SlidingWindowCounterTest.class);
+
+    @Rule
+    public TestName name = new TestName();
+
+    private final AtomicLong now = new AtomicLong(TimeUnit.HOURS.toNanos(1));
+
+    private void advance(long duration, TimeUnit unit) {
+        now.addAndGet(unit.toNanos(duration));
+    }
+
+    @Test
+    public void oldEventsLeaveWindow() {
+        log.info("Start test: {}", name.getMethodName());
+
+        SlidingWindowCounter counter = new SlidingWindowCounter(10, 1, TimeUnit.SECONDS, now::get);
+        for (int second = 0; second < 10; second++) {
+            counter.add(second + 1);
+            advance(1, TimeUnit.SECONDS);
+        }
+        // events of seconds 1 to 9, the first second just left the window
+        Assert.assertEquals(54, counter.sum());
+        Assert.assertEquals(9 + 10, counter.sum(3, TimeUnit.SECONDS));
+        Assert.assertEquals(5.4, counter.rate(), 0.001);
+
+        advance(5, TimeUnit.SECONDS);
+        Assert.assertEquals(7 + 8 + 9 + 10, counter.sum());
+
+        advance(1, TimeUnit.MINUTES);
+        Assert.assertEquals(0, counter.sum());
+        counter.increment();
+        Assert.assertEquals(1, counter.sum());
+
+        log.info("End   test: {}", name.getMethodName());
+    }
+
+    @Test
+    public void incrementFromManyThreads() {
+        log.info("Start test: {}", name.getMethodName());
+
+        SlidingWindowCounter counter = new SlidingWindowCounter(1, 1, TimeUnit.HOURS);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+
+        try {
+            IntStream.range(0, 100000)
+                    .forEach(i -> executor.submit(counter::increment));
+            executor.shutdown();
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            log.error("tasks interrupted");
+        } finally {
+            executor.shutdownNow();
+        }
+        Assert.assertEquals(100000, counter.sum());
+
+        log.info("End   test: {}", name.getMethodName());
+    }
+}
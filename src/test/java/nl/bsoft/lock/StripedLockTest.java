@@ -0,0 +1,142 @@
+package nl.bsoft.lock;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestName;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.Lock;
+import java.util.stream.IntStream;
+
+public class StripedLockTest {
+    private final Logger log = LoggerFactory.getLogger(StripedLockTest.class);
+
+    @Rule
+    public TestName name = new TestName();
+
+    private final int maxNumber = 100000; // number of loops
+
+    private final int[] accounts = new int[16];
+
+    @Test
+    public void stripeCountIsPowerOfTwo() {
+        log.info("Start test: {}", name.getMethodName());
+
+        Assert.assertEquals(1, new StripedLock<String>(1).getStripeCount());
+        Assert.assertEquals(64, new StripedLock<String>(33).getStripeCount());
+        Assert.assertEquals(64, new StripedLock<String>(64).getStripeCount());
+
+        log.info("End   test: {}", name.getMethodName());
+    }
+
+    @Test
+    public void incrementPerKey() {
+        log.info("Start test: {}", name.getMethodName());
+
+        StripedLock<Integer> locks = new StripedLock<>(8);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+
+        try {
+            IntStream.range(0, maxNumber)
+                    .forEach(i -> executor.submit(() -> {
+                        int account = i % accounts.length;
+                        Lock lock = locks.lock(account);
+                        lock.lock();
+                        try {
+                            accounts[account]++;
+                        } finally {
+                            lock.unlock();
+                        }
+                    }));
+            executor.shutdown();
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            log.error("tasks interrupted");
+        } finally {
+            executor.shutdownNow();
+        }
+
+        long acquisitions = 0;
+        long contended = 0;
+        for (int stripe = 0; stripe < locks.getStripeCount(); stripe++) {
+            acquisitions += locks.getAcquisitions(stripe);
+            contended += locks.getContended(stripe);
+        }
+        log.info("Acquisitions: {}, contended: {}", acquisitions, contended);
+        Assert.assertEquals(maxNumber, acquisitions);
+        Assert.assertEquals(maxNumber, Arrays.stream(accounts).sum());
+        for (int account : accounts) {
+            Assert.assertEquals(maxNumber / accounts.length, account);
+        }
+
+        log.info("End   test: {}", name.getMethodName());
+    }
+
+    @Test
+    public void transferWithoutDeadlock() throws Exception {
+        log.info("Start test: {}", name.getMethodName());
+
+        StripedLock<Integer> locks = new StripedLock<>(4);
+        Arrays.fill(accounts, 1000);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+
+        try {
+            IntStream.range(0, maxNumber)
+                    .forEach(i -> executor.submit(() -> {
+                        // opposite directions on the same pairs would deadlock with naive ordering
+                        int from = i % accounts.length;
+                        int to = (accounts.length - 1) - from;
+                        StripedLock.Held held = locks.lockAll(Arrays.asList(from, to));
+                        try {
+                            accounts[from]--;
+                            accounts[to]++;
+                        } finally {
+                            held.close();
+                        }
+                    }));
+            executor.shutdown();
+            Assert.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Assert.assertEquals(1000 * accounts.length, Arrays.stream(accounts).sum());
+
+        log.info("End   test: {}", name.getMethodName());
+    }
+
+    @Test
+    public void readersShareStripe() throws Exception {
+        log.info("Start test: {}", name.getMethodName());
+
+        StripedLock<String> locks = new StripedLock<>(2);
+        Lock read = locks.readLock("customer-1");
+        read.lock();
+        try {
+            ExecutorService executor = Executors.newSingleThreadExecutor();
+            try {
+                Future<Boolean> otherReader = executor.submit(() -> {
+                    Lock lock = locks.readLock("customer-1");
+                    boolean locked = lock.tryLock();
+                    if (locked) {
+                        lock.unlock();
+                    }
+                    return locked;
+                });
+                Future<Boolean> writer = executor.submit(() -> locks.writeLock("customer-1").tryLock());
+                Assert.assertTrue(otherReader.get(1, TimeUnit.SECONDS));
+                Assert.assertFalse(writer.get(1, TimeUnit.SECONDS));
+            } finally {
+                new ConcurrentUtils().stop(executor, 1);
+            }
+        } finally {
+            read.unlock();
+        }
+
+        log.info("End   test: {}", name.getMethodName());
+    }
+}
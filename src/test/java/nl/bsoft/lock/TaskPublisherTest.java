@@ -0,0 +1,245 @@
+package nl.bsoft.lock;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestName;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TaskPublisherTest {
+    private final Logger log = LoggerFactory.getLogger(TaskPublisherTest.class);
+
+    @Rule
+    public TestName name = new TestName();
+
+    /**
+     * Subscriber that records what it receives and requests nothing by itself.
+     */
+    private static class Recorder<T> implements Subscriber<T> {
+        final List<T> values = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch terminated = new CountDownLatch(1);
+        final AtomicInteger terminalSignals = new AtomicInteger();
+        volatile Subscription subscription;
+        volatile Throwable error;
+        volatile boolean completed;
+
+        @Override
+        public void onSubscribe(Subscription s) {
+            subscription = s;
+        }
+
+        @Override
+        public void onNext(T value) {
+            values.add(value);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            error = t;
+            terminalSignals.incrementAndGet();
+            terminated.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            completed = true;
+            terminalSignals.incrementAndGet();
+            terminated.countDown();
+        }
+    }
+
+    @Test
+    public void orderedResults() throws Exception {
+        log.info("Start test: {}", name.getMethodName());
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Callable<Integer>> tasks = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            int number = i;
+            // later tasks finish first
+            tasks.add(() -> {
+                TimeUnit.MILLISECONDS.sleep((50 - number) % 7);
+                return number;
+            });
+        }
+
+        try {
+            Recorder<Integer> recorder = new Recorder<>();
+            new TaskPublisher<>(tasks, executor, 8, true).subscribe(recorder);
+            recorder.subscription.request(Long.MAX_VALUE);
+
+            Assert.assertTrue(recorder.terminated.await(5, TimeUnit.SECONDS));
+            Assert.assertTrue(recorder.completed);
+            Assert.assertEquals(50, recorder.values.size());
+            for (int i = 0; i < 50; i++) {
+                Assert.assertEquals(Integer.valueOf(i), recorder.values.get(i));
+            }
+        } finally {
+            new ConcurrentUtils().stop(executor);
+        }
+
+        log.info("End   test: {}", name.getMethodName());
+    }
+
+    @Test
+    public void demandLimitsStartedTasks() throws Exception {
+        log.info("Start test: {}", name.getMethodName());
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        AtomicInteger started = new AtomicInteger();
+        List<Callable<Integer>> tasks = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            tasks.add(started::incrementAndGet);
+        }
+
+        try {
+            Recorder<Integer> recorder = new Recorder<>();
+            new TaskPublisher<>(tasks, executor, 16, false).subscribe(recorder);
+            Assert.assertEquals(0, started.get());
+
+            recorder.subscription.request(2);
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (recorder.values.size() < 2 && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+            Thread.sleep(50);
+            Assert.assertEquals(2, recorder.values.size());
+            Assert.assertEquals(2, started.get());
+
+            recorder.subscription.request(Long.MAX_VALUE);
+            Assert.assertTrue(recorder.terminated.await(5, TimeUnit.SECONDS));
+            Assert.assertTrue(recorder.completed);
+            Assert.assertEquals(100, recorder.values.size());
+            Assert.assertEquals(100, started.get());
+        } finally {
+            new ConcurrentUtils().stop(executor);
+        }
+
+        log.info("End   test: {}", name.getMethodName());
+    }
+
+    @Test
+    public void cancelInterruptsRunningTasks() throws Exception {
+        log.info("Start test: {}", name.getMethodName());
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        CountDownLatch running = new CountDownLatch(4);
+        CountDownLatch interrupted = new CountDownLatch(4);
+        List<Callable<Integer>> tasks = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            tasks.add(() -> {
+                running.countDown();
+                try {
+                    TimeUnit.SECONDS.sleep(10);
+                } catch (InterruptedException e) {
+                    interrupted.countDown();
+                    throw e;
+                }
+                return 1;
+            });
+        }
+
+        try {
+            Recorder<Integer> recorder = new Recorder<>();
+            new TaskPublisher<>(tasks, executor, 4, true).subscribe(recorder);
+            recorder.subscription.request(Long.MAX_VALUE);
+            Assert.assertTrue(running.await(5, TimeUnit.SECONDS));
+
+            recorder.subscription.cancel();
+            Assert.assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+            Assert.assertTrue(recorder.values.isEmpty());
+            Assert.assertFalse(recorder.completed);
+            Assert.assertNull(recorder.error);
+        } finally {
+            new ConcurrentUtils().stop(executor);
+        }
+
+        log.info("End   test: {}", name.getMethodName());
+    }
+
+    @Test
+    public void failureEndsStream() throws Exception {
+        log.info("Start test: {}", name.getMethodName());
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        List<Callable<Integer>> tasks = new ArrayList<>();
+        tasks.add(() -> 1);
+        tasks.add(() -> {
+            throw new IllegalStateException("task failed");
+        });
+        tasks.add(() -> 3);
+
+        try {
+            Recorder<Integer> recorder = new Recorder<>();
+            new TaskPublisher<>(tasks, executor, 1, true).subscribe(recorder);
+            recorder.subscription.request(Long.MAX_VALUE);
+
+            Assert.assertTrue(recorder.terminated.await(5, TimeUnit.SECONDS));
+            Assert.assertFalse(recorder.completed);
+            Assert.assertTrue(recorder.error instanceof IllegalStateException);
+            Assert.assertEquals(Collections.singletonList(1), recorder.values);
+
+            // a request that is not positive is an error too (rule 3.9)
+            Recorder<Integer> bad = new Recorder<>();
+            new TaskPublisher<>(tasks, executor, 1, true).subscribe(bad);
+            bad.subscription.request(0);
+            Assert.assertTrue(bad.terminated.await(5, TimeUnit.SECONDS));
+            Assert.assertTrue(bad.error instanceof IllegalArgumentException);
+        } finally {
+            new ConcurrentUtils().stop(executor);
+        }
+
+        log.info("End   test: {}", name.getMethodName());
+    }
+
+    @Test
+    public void iteratorFailureEndsStreamOnce() throws Exception {
+        log.info("Start test: {}", name.getMethodName());
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        // the iterator fails when asked for a second task
+        Iterable<Callable<Integer>> tasks = () -> new Iterator<Callable<Integer>>() {
+            private boolean taken = false;
+
+            @Override
+            public boolean hasNext() {
+                if (taken) {
+                    throw new IllegalStateException("source failed");
+                }
+                return true;
+            }
+
+            @Override
+            public Callable<Integer> next() {
+                taken = true;
+                return () -> 1;
+            }
+        };
+
+        Recorder<Integer> recorder = new Recorder<>();
+        try {
+            new TaskPublisher<>(tasks, executor, 4, true).subscribe(recorder);
+            recorder.subscription.request(1);
+            Assert.assertTrue(recorder.terminated.await(5, TimeUnit.SECONDS));
+        } finally {
+            // waits for the drain in the worker thread to finish
+            new ConcurrentUtils().stop(executor);
+        }
+        Assert.assertEquals(Collections.singletonList(1), recorder.values);
+        Assert.assertTrue(recorder.error instanceof IllegalStateException);
+        Assert.assertFalse(recorder.completed);
+        Assert.assertEquals(1, recorder.terminalSignals.get());
+
+        log.info("End   test: {}", name.getMethodName());
+    }
+}
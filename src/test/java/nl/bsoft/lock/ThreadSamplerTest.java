@@ -0,0 +1,181 @@
+package nl.bsoft.lock;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestName;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+public class ThreadSamplerTest {
+    private final Logger log = LoggerFactory.getLogger(ThreadSamplerTest.class);
+
+    @Rule
+    public TestName name = new TestName();
+
+    private final Object monitor = new Object();
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private void holdMonitor(CountDownLatch held, Thread gate) throws InterruptedException {
+        synchronized (monitor) {
+            held.countDown();
+            // join waits in Object.wait on the gate, keeping the monitor
+            gate.join();
+        }
+    }
+
+    private void enterMonitor() {
+        synchronized (monitor) {
+            log.debug("entered monitor");
+        }
+    }
+
+    @Test
+    public void classifiesStates() throws Exception {
+        log.info("Start test: {}", name.getMethodName());
+
+        ThreadSampler sampler = new ThreadSampler(10, TimeUnit.MILLISECONDS, 2, 50);
+        ExecutorService monitors = Executors.newFixedThreadPool(3, sampler.threadFactory("monitors"));
+        ExecutorService locks = Executors.newFixedThreadPool(2, sampler.threadFactory("locks"));
+        ExecutorService sleepers = Executors.newFixedThreadPool(1, sampler.threadFactory("sleepers"));
+        CountDownLatch held = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread gate = new Thread(() -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                log.error("gate interrupted");
+            }
+        });
+        gate.start();
+
+        try {
+            // one thread owns the monitor and waits, two are blocked entering it
+            monitors.submit(() -> {
+                holdMonitor(held, gate);
+                return null;
+            });
+            Assert.assertTrue(held.await(5, TimeUnit.SECONDS));
+            monitors.submit(this::enterMonitor);
+            monitors.submit(this::enterMonitor);
+
+            // the test thread owns the lock, two workers are parked on it
+            lock.lock();
+            locks.submit(() -> {
+                lock.lock();
+                lock.unlock();
+            });
+            locks.submit(() -> {
+                lock.lock();
+                lock.unlock();
+            });
+            sleepers.submit(() -> new ConcurrentUtils().sleep(5));
+
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (lock.getQueueLength() < 2 && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+            Thread.sleep(100);
+            for (int i = 0; i < 20; i++) {
+                sampler.sample();
+            }
+        } finally {
+            lock.unlock();
+            release.countDown();
+        }
+        new ConcurrentUtils().stop(monitors);
+        new ConcurrentUtils().stop(locks);
+        sleepers.shutdownNow();
+
+        String report = sampler.report();
+        log.info("Report:\n{}", report);
+
+        // 20 samples of 2 blocked threads at 10 ms
+        Assert.assertEquals(400, sampler.getTimeInState("monitors", ThreadSampler.State.BLOCKED, TimeUnit.MILLISECONDS));
+        Assert.assertEquals(200, sampler.getTimeInState("monitors", ThreadSampler.State.WAITING, TimeUnit.MILLISECONDS));
+        Assert.assertEquals(400, sampler.getTimeInState("locks", ThreadSampler.State.PARKED, TimeUnit.MILLISECONDS));
+        Assert.assertEquals(200, sampler.getTimeInState("sleepers", ThreadSampler.State.SLEEPING, TimeUnit.MILLISECONDS));
+
+        Assert.assertEquals(2, sampler.getContendedLocks().size());
+        Assert.assertTrue(report.contains("held by monitors-1 (40)"));
+        Assert.assertTrue(report.contains("held by " + Thread.currentThread().getName() + " (40)"));
+        Assert.assertTrue(sampler.getBlockingFrames().get(0).contains("enterMonitor"));
+
+        log.info("End   test: {}", name.getMethodName());
+    }
+
+    @Test
+    public void windowsRollOver() throws Exception {
+        log.info("Start test: {}", name.getMethodName());
+
+        ThreadSampler sampler = new ThreadSampler(1, TimeUnit.MILLISECONDS, 3, 10);
+        ExecutorService sleepers = Executors.newFixedThreadPool(1, sampler.threadFactory("sleepers"));
+        ThreadSampler background = new ThreadSampler(1, TimeUnit.MILLISECONDS, 1, 100000);
+        CountDownLatch sleeping = new CountDownLatch(1);
+        try {
+            sleepers.submit(() -> {
+                background.register("sleepers", Thread.currentThread());
+                sleeping.countDown();
+                new ConcurrentUtils().sleep(5);
+            });
+            Assert.assertTrue(sleeping.await(5, TimeUnit.SECONDS));
+            Thread.sleep(50);
+
+            // only the current and two previous windows, of which one just started, are kept
+            for (int i = 0; i < 100; i++) {
+                sampler.sample();
+            }
+            Assert.assertEquals(20, sampler.getTimeInState("sleepers", ThreadSampler.State.SLEEPING, TimeUnit.MILLISECONDS));
+
+            background.start();
+            Thread.sleep(100);
+        } finally {
+            background.close();
+            sleepers.shutdownNow();
+        }
+        log.info("Report:\n{}", background.report());
+        Assert.assertTrue(background.getTimeInState("sleepers", ThreadSampler.State.SLEEPING, TimeUnit.MILLISECONDS) > 0);
+
+        log.info("End   test: {}", name.getMethodName());
+    }
+
+    @Test
+    public void threadRegisteredBeforeStart() throws Exception {
+        log.info("Start test: {}", name.getMethodName());
+
+        ThreadSampler sampler = new ThreadSampler(10, TimeUnit.MILLISECONDS, 1, 100);
+        CountDownLatch sleeping = new CountDownLatch(1);
+        Thread thread = sampler.threadFactory("late").newThread(() -> {
+            sleeping.countDown();
+            new ConcurrentUtils().sleep(5);
+        });
+        // a pool creates its threads before it starts them
+        sampler.sample();
+
+        Locale locale = Locale.getDefault();
+        try {
+            thread.start();
+            Assert.assertTrue(sleeping.await(5, TimeUnit.SECONDS));
+            Thread.sleep(50);
+            sampler.sample();
+
+            Assert.assertEquals(10, sampler.getTimeInState("late", ThreadSampler.State.SLEEPING, TimeUnit.MILLISECONDS));
+            // decimal point whatever the default locale
+            Locale.setDefault(new Locale("nl", "NL"));
+            Assert.assertTrue(sampler.report().contains("100.0%"));
+        } finally {
+            Locale.setDefault(locale);
+            thread.interrupt();
+            thread.join();
+        }
+
+        log.info("End   test: {}", name.getMethodName());
+    }
+}